@@ -0,0 +1,62 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a network client (plus TLS handshake) for every call versus reusing a pooled one.
+ *
+ * @author jgomer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientReuseBenchmark {
+
+    private StubOxdServer server;
+    private PooledClient shared;
+
+    @Setup
+    public void setup() throws Exception {
+        server = StubOxdServer.start(0);
+        shared = PooledClient.create("localhost", server.getPort(), true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        shared.close();
+        server.close();
+    }
+
+    @Benchmark
+    public String createPerCall() {
+        try (PooledClient client = PooledClient.create("localhost", server.getPort(), true)) {
+            return client.getClientInterface().healthCheck();
+        }
+    }
+
+    @Benchmark
+    public String reuse() {
+        return shared.getClientInterface().healthCheck();
+    }
+
+}
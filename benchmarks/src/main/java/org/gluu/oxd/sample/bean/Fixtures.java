@@ -0,0 +1,125 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Builds the beans of the app outside a CDI container, wiring their dependencies by hand.
+ *
+ * @author jgomer
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns a configuration of an already registered client, pointing to an oxd-server on localhost
+     */
+    static OxdConfig config(int oxdPort) {
+
+        OxdConfig config = new OxdConfig();
+        config.setHost("localhost");
+        config.setPort(oxdPort);
+        config.setTrustAllClient(true);
+        config.setOpHost(StubOxdServer.OP_HOST);
+        config.setRedirectUri("https://localhost:8463/oidc/tokens.xhtml");
+        config.setPostLogoutUri("https://localhost:8463/oidc/post-logout.xhtml");
+        config.setGrantTypes("authorization_code client_credentials");
+        config.setAcrValues("auth_ldap_server");
+        config.setScopes("openid uma_protection oxd");
+        config.setOxdId("7d4b7b7a-4a8f-4d3c-8f0e-4f0a3a2b1c9d");
+        config.setClientId("@!1234");
+        config.setClientSecret("secret");
+        config.setClientName("sampleapp-client-benchmark");
+        config.publish();
+        return config;
+
+    }
+
+    static OxdService service(OxdConfig config) throws Exception {
+
+        OxdService service = new SerializableOxdService();
+        set(service, OxdService.class, "config", config);
+        set(service, OxdService.class, "flowTracer", new SerializableFlowTracer());
+        method(OxdService.class, "init").invoke(service);
+        return service;
+
+    }
+
+    static FlowManager flowManager(OxdService service) throws Exception {
+
+        FlowManager flow = new FlowManager();
+        set(flow, "oxdService", service);
+        set(flow, "flowTracer", SerializableFlowTracer.current);
+        invoke(flow, "init");
+        return flow;
+
+    }
+
+    static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        set(target, target.getClass(), name, value);
+    }
+
+    static void set(Object target, Class<?> cls, String name, Object value) throws ReflectiveOperationException {
+
+        Field field = cls.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+
+    }
+
+    static Object invoke(Object target, String name) throws ReflectiveOperationException {
+        return method(target.getClass(), name).invoke(target);
+    }
+
+    static Method method(Class<?> cls, String name, Class<?>... parameterTypes) throws ReflectiveOperationException {
+
+        Method method = cls.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+
+    }
+
+    /**
+     * An {@link OxdService} that, like the client proxies injected by CDI, can be serialized along with the beans
+     * referencing it: it is written as a mere reference and read back as the last instance created
+     */
+    static final class SerializableOxdService extends OxdService implements Serializable {
+
+        private static volatile SerializableOxdService current;
+
+        SerializableOxdService() {
+            current = this;
+        }
+
+        private Object readResolve() {
+            return current;
+        }
+
+    }
+
+    /**
+     * A {@link FlowTracer} that is serialized as a mere reference, like {@link SerializableOxdService}
+     */
+    static final class SerializableFlowTracer extends FlowTracer implements Serializable {
+
+        private static volatile SerializableFlowTracer current;
+
+        SerializableFlowTracer() {
+            current = this;
+        }
+
+        private Object readResolve() {
+            return current;
+        }
+
+    }
+
+}
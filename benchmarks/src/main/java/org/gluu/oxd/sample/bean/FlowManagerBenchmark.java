@@ -0,0 +1,92 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.gluu.oxd.client.GetTokensByCodeResponse2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory work done by {@link FlowManager}: turning the tokens response into the compact JSON kept for display,
+ * rendering it, and matching stages in pages.
+ *
+ * @author jgomer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowManagerBenchmark {
+
+    private static final byte[] TOKENS_JSON = StubOxdServer.TOKENS_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+    private OxdService service;
+    private FlowManager flow;
+    private Method onTokens;
+    private byte[] compactTokens;
+
+    @Setup
+    public void setup() throws Exception {
+
+        //No oxd calls are issued, but the flow schedules the refresh of the access token it gets
+        service = Fixtures.service(Fixtures.config(0));
+        flow = Fixtures.flowManager(service);
+        onTokens = Fixtures.method(FlowManager.class, "onTokens", GetTokensByCodeResponse2.class);
+        onTokens.invoke(flow, parseTokens());
+        compactTokens = flow.getTokensResponse();
+
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    /**
+     * Baseline for {@link #onTokens()}: parsing done by the oxd client when the response arrives
+     */
+    @Benchmark
+    public GetTokensByCodeResponse2 parseTokens() throws Exception {
+        return Json.MAPPER.readValue(TOKENS_JSON, GetTokensByCodeResponse2.class);
+    }
+
+    @Benchmark
+    public byte[] onTokens() throws Exception {
+        onTokens.invoke(flow, parseTokens());
+        return flow.getTokensResponse();
+    }
+
+    @Benchmark
+    public String prettyTokens() {
+        return Json.pretty(compactTokens);
+    }
+
+    @Benchmark
+    public boolean isCurrentSingle() {
+        return flow.isCurrent("PRE_AUTHZ_URL");
+    }
+
+    @Benchmark
+    public boolean isCurrentList() {
+        return flow.isCurrent("TOKEN_REQUEST, TOKEN_RESPONSE, USER_INFO");
+    }
+
+}
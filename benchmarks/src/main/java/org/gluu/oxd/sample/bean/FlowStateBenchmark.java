@@ -0,0 +1,185 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.client.GetTokensByCodeResponse2;
+import org.gluu.oxd.sample.security.CookieSealer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of keeping the flow state: Java serialization of the session-scoped {@link FlowManager} (as done
+ * for passivation and replication) versus the encrypted cookie of the stateless mode. The <code>legacy</code> methods are
+ * the baseline: the default serialized form {@link FlowManager} had before it got a custom one, holding the same flow.
+ * Sizes are printed at the end of every trial.
+ *
+ * @author jgomer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowStateBenchmark {
+
+    private OxdService service;
+    private FlowManager flow;
+    private FlowManager target;
+    private long issuedAt;
+    private CookieSealer sealer;
+    private byte[] serialized;
+    private String cookie;
+    private LegacyFlowManager legacy;
+    private byte[] legacySerialized;
+
+    @Setup
+    public void setup() throws Exception {
+
+        service = Fixtures.service(Fixtures.config(0));
+        flow = Fixtures.flowManager(service);
+        target = Fixtures.flowManager(service);
+        Fixtures.set(flow, "authzUrl", StubOxdServer.OP_HOST + "/oxauth/restv1/authorize?response_type=code"
+                + "&client_id=%40%211234&scope=openid&state=7b1e9c2a-5a1c-4f0e-9b8e-0d5c8f3a6e21&nonce=n-0S6_WzA2Mj");
+        flow.setCode("4f1c2a7e-9d8b-4b5a-8c3e-2f1d0e9c8b7a");
+        flow.setState("7b1e9c2a-5a1c-4f0e-9b8e-0d5c8f3a6e21");
+        Fixtures.method(FlowManager.class, "onTokens", GetTokensByCodeResponse2.class)
+                .invoke(flow, Json.MAPPER.readValue(StubOxdServer.TOKENS_RESPONSE, GetTokensByCodeResponse2.class));
+        Fixtures.set(flow, "userInfoResponse", StubOxdServer.USER_INFO_RESPONSE.getBytes(StandardCharsets.UTF_8));
+        Fixtures.set(flow, "logoutUrl", StubOxdServer.OP_HOST + "/oxauth/restv1/end_session?state=1");
+
+        byte[] key = new byte[32];
+        sealer = new CookieSealer("1:" + Base64.getEncoder().encodeToString(key), "oxd_flow");
+        serialized = serialize();
+        cookie = sealer.seal(flow.exportState());
+
+        legacy = new LegacyFlowManager();
+        legacySerialized = legacySerialize();
+
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+        System.out.println();
+        System.out.println("Serialized FlowManager: " + serialized.length + " bytes (legacy form: " + legacySerialized.length
+                + " bytes), flow cookie: " + cookie.length() + " chars");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(flow);
+        }
+        return bytes.toByteArray();
+
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public String cookieWrite() throws Exception {
+        return sealer.seal(flow.exportState());
+    }
+
+    @Benchmark
+    public boolean cookieRead() {
+        //Every cookie read is newer than the state held, as when the flow moves between nodes
+        return target.importState(sealer.open(cookie), ++issuedAt);
+    }
+
+    @Benchmark
+    public byte[] legacySerialize() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(legacy);
+        }
+        return bytes.toByteArray();
+
+    }
+
+    @Benchmark
+    public Object legacyDeserialize() throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(legacySerialized))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * The fields of {@link FlowManager} as they were when it relied on default serialization (injected references left
+     * out, as they are null here too), holding the flow built in {@link #setup()}: pretty-printed JSON strings, and the
+     * object mapper and logger of every instance
+     */
+    static class LegacyFlowManager implements Serializable {
+
+        private ObjectMapper mapper;
+        private Logger logger = LogManager.getLogger(getClass());
+        private FlowManager.Stage stage;
+
+        private String authzUrl;
+        private String code;
+        private String state;
+        private String tokensReponseAsJson;
+        private String accessToken;
+        private String idToken;
+        private String idTokenAsJson;
+        private String userInfoReponseAsJson;
+        private String logoutUrl;
+
+        LegacyFlowManager() throws Exception {
+
+            mapper = new ObjectMapper();
+            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+            mapper.disable(SerializationFeature.WRITE_NULL_MAP_VALUES);
+
+            GetTokensByCodeResponse2 tokens = Json.MAPPER.readValue(StubOxdServer.TOKENS_RESPONSE, GetTokensByCodeResponse2.class);
+            stage = FlowManager.Stage.USER_INFO;
+            authzUrl = StubOxdServer.OP_HOST + "/oxauth/restv1/authorize?response_type=code"
+                    + "&client_id=%40%211234&scope=openid&state=7b1e9c2a-5a1c-4f0e-9b8e-0d5c8f3a6e21&nonce=n-0S6_WzA2Mj";
+            code = "4f1c2a7e-9d8b-4b5a-8c3e-2f1d0e9c8b7a";
+            state = "7b1e9c2a-5a1c-4f0e-9b8e-0d5c8f3a6e21";
+            tokensReponseAsJson = mapper.writeValueAsString(tokens);
+            accessToken = tokens.getAccessToken();
+            idToken = tokens.getIdToken();
+            idTokenAsJson = mapper.writeValueAsString(tokens.getIdTokenClaims());
+            userInfoReponseAsJson = mapper.writeValueAsString(mapper.readTree(StubOxdServer.USER_INFO_RESPONSE));
+            logoutUrl = StubOxdServer.OP_HOST + "/oxauth/restv1/end_session?state=1";
+
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log calls of the app under the former logging setup (synchronous, with caller location in the layout) versus the
+ * current one (asynchronous loggers, no location, flow id taken from the thread context). Both write to a file in the
+ * temporary directory, so the console is not part of the measurement.
+ *
+ * @author jgomer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Setting {
+
+        //Configuration file under logging/ in the classpath
+        @Param({ "sync-location", "async" })
+        public String config;
+
+        private LoggerContext context;
+        private Logger logger;
+
+        @Setup
+        public void setup() {
+            context = Configurator.initialize("benchmark", getClass().getClassLoader(), "logging/" + config + ".xml");
+            logger = context.getLogger(FlowManager.class.getName());
+        }
+
+        @TearDown
+        public void tearDown() {
+            //Waits for queued events to be written
+            Configurator.shutdown(context);
+        }
+
+    }
+
+    private long revision;
+
+    @Setup
+    public void setup() {
+        ThreadContext.put(FlowManager.FLOW_ID, "5f0c2a9e81b3d47c");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ThreadContext.remove(FlowManager.FLOW_ID);
+    }
+
+    @Benchmark
+    public void log(Setting setting) {
+        setting.logger.info("Flow moved to stage {} (revision {})", FlowManager.Stage.USER_INFO, ++revision);
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the settings file into {@link OxdConfig}, and taking the {@link OxdSettings} snapshot that requests read.
+ *
+ * @author jgomer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OxdConfigBenchmark {
+
+    private OxdConfig config;
+    private Method populate;
+    private Properties props;
+
+    @Setup
+    public void setup() throws Exception {
+
+        config = Fixtures.config(8443);
+        populate = Fixtures.method(OxdConfig.class, "populate", Properties.class);
+
+        props = new Properties();
+        props.setProperty("opHost", StubOxdServer.OP_HOST);
+        props.setProperty("host", "oxd1.example.org:8443, oxd2.example.org:8443");
+        props.setProperty("port", "8443");
+        props.setProperty("acrValues", "auth_ldap_server");
+        props.setProperty("grantTypes", "authorization_code client_credentials");
+        props.setProperty("scopes", "openid uma_protection oxd");
+
+    }
+
+    @Benchmark
+    public OxdConfig populate() throws Exception {
+        populate.invoke(config, props);
+        return config;
+    }
+
+    @Benchmark
+    public OxdSettings snapshot() {
+        return new OxdSettings(config, 1);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.gluu.oxd.client.GetTokensByCodeResponse2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of {@link OxdService} operations against an in-process oxd-server. With zero latency, results reflect the
+ * overhead of the app plus the HTTPS round trip over loopback.
+ *
+ * @author jgomer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Doxd.sample.skip-conf-file")
+public class OxdServiceBenchmark {
+
+    @Param({ "0" })
+    public long latencyMillis;
+
+    private StubOxdServer server;
+    private OxdService service;
+    private final AtomicLong tokens = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        server = StubOxdServer.start(latencyMillis);
+        service = Fixtures.service(Fixtures.config(server.getPort()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+        server.close();
+    }
+
+    @Benchmark
+    public String getAuthzUrl() throws Exception {
+        return service.getAuthzUrl();
+    }
+
+    @Benchmark
+    public String getAuthzUrlAsync() throws Exception {
+        //Includes the hand-off to the call executor and the guard
+        return service.getAuthzUrlAsync().get();
+    }
+
+    @Benchmark
+    public GetTokensByCodeResponse2 getTokens() throws Exception {
+        return service.getTokens("4f1c2a7e-code", "state");
+    }
+
+    @Benchmark
+    public JsonNode getUserInfoCached() throws Exception {
+        return service.getUserInfo("b8bc4a52-4fa1-4c66-a5ae-d1b1d6fe10f2", -1);
+    }
+
+    @Benchmark
+    public JsonNode getUserInfoUncached() throws Exception {
+        return service.getUserInfo("token-" + tokens.incrementAndGet(), -1);
+    }
+
+    @Benchmark
+    public String getLogoutUrl() throws Exception {
+        return service.getLogoutUrl(StubOxdServer.ID_TOKEN);
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process stand-in for oxd-server that answers the API operations used by the app with canned responses after
+ * an optional delay. It listens on HTTPS using the keystore found at the root of the project (see
+ * <code>stub.keystore</code> system property).
+ *
+ * @author jgomer
+ */
+public final class StubOxdServer implements AutoCloseable {
+
+    static final String OP_HOST = "https://op.example.org";
+
+    //A realistic (RS256-sized) ID Token. Its signature is not verified by benchmarks
+    static final String ID_TOKEN = "eyJraWQiOiJrMSIsInR5cCI6IkpXVCIsImFsZyI6IlJTMjU2In0."
+            + "eyJpc3MiOiJodHRwczovL29wLmV4YW1wbGUub3JnIiwiYXVkIjoiQC4hMTIzNCIsImV4cCI6NDEwMjQ0NDgwMCwiaWF0IjoxNTE2MjM5MDIyLC"
+            + "Jub25jZSI6Im4tMFM2X1d6QTJNaiIsImF0X2hhc2giOiJ3ZkdnZ2xiVWQ0eUxwMGpBaHl6SHRRIiwic3ViIjoiMjQ0MDAzMjAifQ."
+            + "TG9yZW0gaXBzdW0gZG9sb3Igc2l0IGFtZXQsIGNvbnNlY3RldHVyIGFkaXBpc2NpbmcgZWxpdCwgc2VkIGRvIGVpdXNtb2QgdGVtcG9yIGluY2"
+            + "lkaWR1bnQgdXQgbGFib3JlIGV0IGRvbG9yZSBtYWduYSBhbGlxdWEuIFV0IGVuaW0gYWQgbWluaW0gdmVuaWFtLCBxdWlzIG5vc3RydWQgZXhl"
+            + "cmNpdGF0aW9uIHVsbGFtY28gbGFib3JpcyBuaXNpIHV0IGFsaXF1aXAgZXggZWEgY29tbW9kbyBjb25zZXF1YXQu";
+
+    static final String TOKENS_RESPONSE = "{\"access_token\":\"b8bc4a52-4fa1-4c66-a5ae-d1b1d6fe10f2\",\"expires_in\":299,"
+            + "\"id_token\":\"" + ID_TOKEN + "\",\"refresh_token\":\"6f5e2c8a-1b1c-4bb7-9d3d-2a7a1c0e7b55\","
+            + "\"id_token_claims\":{\"iss\":[\"" + OP_HOST + "\"],\"aud\":[\"@!1234\"],\"exp\":[\"4102444800\"],"
+            + "\"iat\":[\"1516239022\"],\"nonce\":[\"n-0S6_WzA2Mj\"],\"at_hash\":[\"wfGgglbUd4yLp0jAhyzHtQ\"],"
+            + "\"sub\":[\"24400320\"],\"auth_time\":[\"1516239022\"],\"acr\":[\"auth_ldap_server\"]}}";
+
+    static final String USER_INFO_RESPONSE = "{\"sub\":\"24400320\",\"name\":\"Jane Doe\",\"given_name\":\"Jane\","
+            + "\"family_name\":\"Doe\",\"email\":\"janedoe@example.org\",\"email_verified\":true,"
+            + "\"picture\":\"https://example.org/janedoe/me.jpg\",\"locale\":\"en-US\",\"zoneinfo\":\"America/Chicago\"}";
+
+    private final HttpsServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+
+    private StubOxdServer(long latencyMillis) throws Exception {
+
+        this.latencyMillis = latencyMillis;
+
+        char[] password = System.getProperty("stub.keystore.password", "oxtrust").toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = Files.newInputStream(Paths.get(System.getProperty("stub.keystore", "../keystore")))) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "stub-oxd");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpsServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+
+    }
+
+    /**
+     * Starts a server on a random port.
+     *
+     * @param latencyMillis Delay applied to every response
+     */
+    public static StubOxdServer start(long latencyMillis) throws Exception {
+        return new StubOxdServer(latencyMillis);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) >= 0) {
+                //Drain the request
+            }
+        }
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String body;
+        switch (exchange.getRequestURI().getPath()) {
+            case "/health-check":
+                body = "{\"status\":\"running\"}";
+                break;
+            case "/get-client-token":
+                body = "{\"access_token\":\"" + UUID.randomUUID() + "\",\"expires_in\":3600,\"scope\":[\"openid\",\"oxd\"]}";
+                break;
+            case "/register-site":
+                body = "{\"oxd_id\":\"" + UUID.randomUUID() + "\",\"client_id\":\"@!1234\",\"client_secret\":\"secret\"}";
+                break;
+            case "/get-authorization-url":
+                body = "{\"authorization_url\":\"" + OP_HOST + "/oxauth/restv1/authorize?response_type=code&client_id=%40%211234"
+                        + "&redirect_uri=https%3A%2F%2Flocalhost%3A8463%2Foidc%2Ftokens.xhtml&scope=openid&state="
+                        + UUID.randomUUID() + "&nonce=" + UUID.randomUUID() + "&acr_values=auth_ldap_server\"}";
+                break;
+            case "/get-tokens-by-code":
+                body = TOKENS_RESPONSE;
+                break;
+            case "/get-user-info":
+                body = USER_INFO_RESPONSE;
+                break;
+            case "/get-logout-uri":
+                body = "{\"uri\":\"" + OP_HOST + "/oxauth/restv1/end_session?post_logout_redirect_uri="
+                        + "https%3A%2F%2Flocalhost%3A8463%2Foidc%2Fpost-logout.xhtml&state=" + UUID.randomUUID() + "\"}";
+                break;
+            default:
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+
+    }
+
+}
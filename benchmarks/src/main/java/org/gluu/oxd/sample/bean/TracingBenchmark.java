@@ -0,0 +1,89 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a span as incurred by oxd calls (which look the trace up through the thread context) for a flow that is not
+ * sampled versus one that is, while a thousand other flows are being traced.
+ *
+ * @author jgomer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracingBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean sampled;
+
+    private FlowTracer tracer;
+
+    @Setup
+    public void setup() {
+
+        tracer = new FlowTracer();
+        for (int traced = 0; traced < 1000; ) {
+            traced += tracer.start(randomId()) == null ? 0 : 1;
+        }
+        String flowId;
+        if (sampled) {
+            do {
+                flowId = randomId();
+            } while (tracer.start(flowId) == null);
+        } else {
+            do {
+                flowId = randomId();
+            } while (FlowTracer.isSampled(flowId));
+        }
+        //As done by FlowContextFilter once per request
+        ThreadContext.put(FlowManager.FLOW_ID, flowId);
+
+    }
+
+    @TearDown
+    public void tearDown() {
+        ThreadContext.remove(FlowManager.FLOW_ID);
+        tracer.close();
+    }
+
+    @Benchmark
+    public FlowTrace.Span span() {
+
+        FlowTrace trace = tracer.current();
+        if (trace == null) {
+            return null;
+        }
+        FlowTrace.Span span = trace.begin("oxd", "getUserInfo");
+        span.end(null);
+        return span;
+
+    }
+
+    private static String randomId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.launcher;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.annotations.AnnotationConfiguration;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.plus.webapp.EnvConfiguration;
+import org.eclipse.jetty.plus.webapp.PlusConfiguration;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ReservedThreadExecutor;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.webapp.Configuration;
+import org.eclipse.jetty.webapp.FragmentConfiguration;
+import org.eclipse.jetty.webapp.JettyWebXmlConfiguration;
+import org.eclipse.jetty.webapp.MetaInfConfiguration;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.eclipse.jetty.webapp.WebInfConfiguration;
+import org.eclipse.jetty.webapp.WebXmlConfiguration;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the app war in an embedded Jetty server meant for production use: a single TLS port speaking HTTP/2 and
+ * HTTP/1.1 (negotiated with ALPN), with TLS session resumption, a tuned thread pool and configurable acceptors,
+ * selectors and timeouts. See the accompanying README file for the system properties supported.
+ * <p>Startup is kept short by extracting the war once to a persistent work directory and limiting annotation scanning
+ * to the classes of the app.</p>
+ *
+ * @author jgomer
+ */
+public final class Launcher {
+
+    private static final String PREFIX = "oxd.sample.jetty.";
+    private static final String THREAD_LOCALS = "log4j2.enable.threadlocals";
+
+    private Launcher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        long start = System.nanoTime();
+        //The app gets a container of its own, so buffers kept by its threads cannot outlive it: log4j may use thread
+        //locals, which it turns off by default in servlet containers
+        if (System.getProperty(THREAD_LOCALS) == null) {
+            System.setProperty(THREAD_LOCALS, "true");
+        }
+
+        Path war = Paths.get(System.getProperty("oxd.sample.war", "target/oxd-java-sample.war"));
+        if (!Files.isRegularFile(war)) {
+            throw new IllegalArgumentException("War file " + war.toAbsolutePath() + " not found, set oxd.sample.war");
+        }
+
+        Server server = new Server(threadPool());
+        server.addBean(new ScheduledExecutorScheduler("jetty-scheduler", true));
+        server.addConnector(connector(server));
+
+        StatisticsHandler statistics = new StatisticsHandler();
+        statistics.setHandler(webApp(war));
+        server.setHandler(statistics);
+        //Requests in progress are allowed to complete upon shutdown
+        server.setStopTimeout(Long.getLong(PREFIX + "stop-timeout", 10000L));
+        server.setStopAtShutdown(true);
+
+        server.start();
+        System.out.printf("oxd-java-sample started in %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        server.join();
+
+    }
+
+    private static QueuedThreadPool threadPool() {
+
+        QueuedThreadPool pool = new QueuedThreadPool(Integer.getInteger(PREFIX + "max-threads", 200),
+                Integer.getInteger(PREFIX + "min-threads", 16), Integer.getInteger(PREFIX + "thread-idle-timeout", 60000));
+        pool.setName("jetty");
+        //Threads kept spinning to run tasks produced by selectors immediately (-1 lets Jetty choose)
+        pool.setReservedThreads(Integer.getInteger(PREFIX + "reserved-threads", -1));
+        pool.setDetailedDump(false);
+        return pool;
+
+    }
+
+    private static ServerConnector connector(Server server) {
+
+        int port = Integer.getInteger("oxd.sample.port", 8463);
+
+        HttpConfiguration config = new HttpConfiguration();
+        config.setSecureScheme("https");
+        config.setSecurePort(port);
+        config.setOutputBufferSize(Integer.getInteger(PREFIX + "output-buffer-size", 32768));
+        config.setRequestHeaderSize(Integer.getInteger(PREFIX + "request-header-size", 8192));
+        config.setResponseHeaderSize(Integer.getInteger(PREFIX + "response-header-size", 8192));
+        config.setHeaderCacheSize(Integer.getInteger(PREFIX + "header-cache-size", 512));
+        config.setSendServerVersion(false);
+        config.addCustomizer(new SecureRequestCustomizer());
+
+        SslContextFactory.Server ssl = new SslContextFactory.Server();
+        ssl.setKeyStorePath(System.getProperty("oxd.sample.keystore", "../keystore"));
+        ssl.setKeyStoreType(System.getProperty("oxd.sample.keystore.type", "JKS"));
+        ssl.setKeyStorePassword(System.getProperty("oxd.sample.keystore.password", "oxtrust"));
+        //Returning clients resume their TLS sessions instead of doing a full handshake
+        ssl.setSessionCachingEnabled(true);
+        ssl.setSslSessionCacheSize(Integer.getInteger(PREFIX + "tls.session-cache-size", 20000));
+        ssl.setSslSessionTimeout(Integer.getInteger(PREFIX + "tls.session-timeout", 3600));
+
+        List<ConnectionFactory> factories = new ArrayList<>();
+        HttpConnectionFactory http1 = new HttpConnectionFactory(config);
+
+        if (Boolean.parseBoolean(System.getProperty(PREFIX + "http2", "true"))) {
+            HTTP2ServerConnectionFactory http2 = new HTTP2ServerConnectionFactory(config);
+            http2.setMaxConcurrentStreams(Integer.getInteger(PREFIX + "h2.max-concurrent-streams", 128));
+
+            //ALPN protocol ids are case-sensitive: "http/1.1", not HttpConnectionFactory's "HTTP/1.1"
+            ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory("h2", "http/1.1");
+            alpn.setDefaultProtocol("http/1.1");
+
+            //HTTP/2 forbids a number of ciphers, which must not be preferred
+            ssl.setCipherComparator(HTTP2Cipher.COMPARATOR);
+            ssl.setUseCipherSuitesOrder(true);
+
+            factories.add(new SslConnectionFactory(ssl, alpn.getProtocol()));
+            factories.add(alpn);
+            factories.add(http2);
+        } else {
+            factories.add(new SslConnectionFactory(ssl, http1.getProtocol()));
+        }
+        factories.add(http1);
+
+        ServerConnector connector = new ServerConnector(server, Integer.getInteger(PREFIX + "acceptors", 1),
+                Integer.getInteger(PREFIX + "selectors", -1), factories.toArray(new ConnectionFactory[0]));
+        connector.setPort(port);
+        connector.setIdleTimeout(Long.getLong(PREFIX + "idle-timeout", 30000L));
+        connector.setAcceptQueueSize(Integer.getInteger(PREFIX + "accept-queue-size", 1024));
+        connector.setReuseAddress(true);
+        return connector;
+
+    }
+
+    private static WebAppContext webApp(Path war) {
+
+        WebAppContext webApp = new WebAppContext();
+        webApp.setContextPath(System.getProperty("oxd.sample.context-path", "/"));
+        webApp.setWar(war.toAbsolutePath().toString());
+
+        //Extract the war once: subsequent starts reuse the directory unless the war changed
+        File workDir = new File(System.getProperty("oxd.sample.work-dir",
+                new File(System.getProperty("java.io.tmpdir"), "oxd-java-sample-jetty").getPath()));
+        workDir.mkdirs();
+        webApp.setTempDirectory(workDir);
+        webApp.setPersistTempDirectory(true);
+
+        webApp.setConfigurations(new Configuration[]{
+                new WebInfConfiguration(), new WebXmlConfiguration(), new MetaInfConfiguration(), new FragmentConfiguration(),
+                new EnvConfiguration(), new PlusConfiguration(), new AnnotationConfiguration(), new JettyWebXmlConfiguration()
+        });
+        //Only the classes of the app are scanned for annotations (@WebListener), not the jars of its libraries
+        webApp.setAttribute(WebInfConfiguration.WEBINF_JAR_PATTERN, "^$");
+        webApp.setAttribute(WebInfConfiguration.CONTAINER_JAR_PATTERN, "^$");
+        webApp.setAttribute(AnnotationConfiguration.MULTI_THREADED, Boolean.TRUE);
+
+        //Let Weld decorate servlets, filters and listeners so they support @Inject (what Jetty's cdi2 module does)
+        webApp.prependServerClass("-org.eclipse.jetty.util.Decorator");
+        webApp.prependServerClass("-org.eclipse.jetty.util.DecoratedObjectFactory");
+        webApp.prependServerClass("-org.eclipse.jetty.server.handler.ContextHandler.");
+        webApp.prependServerClass("-org.eclipse.jetty.server.handler.ContextHandler");
+        webApp.prependServerClass("-org.eclipse.jetty.servlet.ServletContextHandler");
+
+        //Static resources are served from memory-mapped files
+        webApp.setInitParameter("org.eclipse.jetty.servlet.Default.useFileMappedBuffer", "true");
+        webApp.setInitParameter("org.eclipse.jetty.servlet.Default.dirAllowed", "false");
+        webApp.setThrowUnavailableOnStartupException(true);
+        return webApp;
+
+    }
+
+}
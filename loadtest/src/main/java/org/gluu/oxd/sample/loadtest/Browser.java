@@ -0,0 +1,204 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.loadtest;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal browser: it keeps its own cookies, follows redirects (also across hosts, as the flow requires) and can
+ * submit the JSF form of a page by pressing its only button. Instances are used by a single virtual user, while the
+ * underlying connection pool is shared.
+ *
+ * @author jgomer
+ */
+final class Browser {
+
+    private static final int MAX_REDIRECTS = 10;
+
+    private static final Pattern FORM = Pattern.compile("<form\\b([^>]*)>(.*?)</form>", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+    private static final Pattern INPUT = Pattern.compile("<input\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:.-]+)\\s*=\\s*\"([^\"]*)\"");
+
+    private static HttpClient client;
+
+    private final Map<String, String> cookies = new ConcurrentHashMap<>();
+    private final Duration timeout;
+
+    /**
+     * A response after all redirects were followed.
+     */
+    static final class Page {
+
+        final URI uri;
+        final int status;
+        final String body;
+
+        Page(URI uri, int status, String body) {
+            this.uri = uri;
+            this.status = status;
+            this.body = body;
+        }
+
+        boolean hasForm() {
+            return FORM.matcher(body).find();
+        }
+
+    }
+
+    Browser(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Creates the client shared by all browsers. Certificates are not validated, since the app and the stand-ins use
+     * self-signed ones.
+     */
+    static synchronized void init(int maxConnections) throws GeneralSecurityException {
+
+        if (client == null) {
+            System.setProperty("jdk.internal.httpclient.disableHostnameVerification", "true");
+            System.setProperty("jdk.httpclient.connectionPoolSize", Integer.toString(maxConnections));
+
+            TrustManager trustAll = new X509TrustManager() {
+                public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            };
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[]{ trustAll }, null);
+
+            client = HttpClient.newBuilder().sslContext(sslContext).followRedirects(HttpClient.Redirect.NEVER)
+                    .version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10)).build();
+        }
+
+    }
+
+    Page get(String url) throws IOException, InterruptedException {
+        return follow(HttpRequest.newBuilder(URI.create(url)).GET());
+    }
+
+    /**
+     * Submits the (first) form of a page using its (first) submit button, as the user would by clicking it.
+     */
+    Page submit(Page page) throws IOException, InterruptedException {
+
+        Matcher form = FORM.matcher(page.body);
+        if (!form.find()) {
+            throw new IOException("No form found in " + page.uri);
+        }
+        String action = attributes(form.group(1)).get("action");
+        if (action == null) {
+            throw new IOException("Form without action in " + page.uri);
+        }
+
+        StringBuilder data = new StringBuilder();
+        boolean buttonPressed = false;
+        Matcher input = INPUT.matcher(form.group(2));
+        while (input.find()) {
+            Map<String, String> attrs = attributes(input.group(1));
+            String type = attrs.getOrDefault("type", "text");
+            String name = attrs.get("name");
+            if (name == null || (type.equals("submit") && buttonPressed)) {
+                continue;
+            }
+            buttonPressed |= type.equals("submit");
+            if (data.length() > 0) {
+                data.append('&');
+            }
+            data.append(encode(name)).append('=').append(encode(attrs.getOrDefault("value", "")));
+        }
+
+        return follow(HttpRequest.newBuilder(page.uri.resolve(action))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(data.toString())));
+
+    }
+
+    private Page follow(HttpRequest.Builder builder) throws IOException, InterruptedException {
+
+        for (int i = 0; i <= MAX_REDIRECTS; i++) {
+            HttpRequest request = withCookies(builder.timeout(timeout)).build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            response.headers().allValues("Set-Cookie").forEach(this::store);
+
+            int status = response.statusCode();
+            String location = response.headers().firstValue("Location").orElse(null);
+            if (status / 100 != 3 || location == null) {
+                return new Page(request.uri(), status, response.body());
+            }
+            builder = HttpRequest.newBuilder(request.uri().resolve(location)).GET();
+        }
+        throw new IOException("Too many redirects");
+
+    }
+
+    private HttpRequest.Builder withCookies(HttpRequest.Builder builder) {
+
+        if (!cookies.isEmpty()) {
+            StringBuilder header = new StringBuilder();
+            cookies.forEach((name, value) -> header.append(header.length() == 0 ? "" : "; ").append(name).append('=').append(value));
+            builder.setHeader("Cookie", header.toString());
+        }
+        return builder;
+
+    }
+
+    private void store(String setCookie) {
+
+        String pair = setCookie.split(";", 2)[0];
+        int eq = pair.indexOf('=');
+        if (eq > 0) {
+            String name = pair.substring(0, eq).trim();
+            String value = pair.substring(eq + 1).trim();
+            if (value.isEmpty() || setCookie.toLowerCase().contains("max-age=0")) {
+                cookies.remove(name);
+            } else {
+                cookies.put(name, value);
+            }
+        }
+
+    }
+
+    private static Map<String, String> attributes(String tag) {
+
+        Map<String, String> attrs = new LinkedHashMap<>();
+        Matcher m = ATTRIBUTE.matcher(tag);
+        while (m.find()) {
+            attrs.put(m.group(1).toLowerCase(), m.group(2).replace("&amp;", "&").replace("&quot;", "\"")
+                    .replace("&lt;", "<").replace("&gt;", ">"));
+        }
+        return attrs;
+
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of the load generator. It starts the oxd-server and OP stand-ins, waits for the app to come up, and
+ * runs a number of virtual users through the login flow for a given time. Then a report of throughput and latency
+ * percentiles per step is printed.
+ * <p>Options are passed as <code>--name=value</code>; run with <code>--help</code> to list them.</p>
+ *
+ * @author jgomer
+ */
+public final class LoadTest {
+
+    private static final String[][] OPTIONS = {
+            { "app", "https://localhost:8463", "Root URL of the running app" },
+            { "users", "50", "Number of concurrent virtual users" },
+            { "duration", "60", "Seconds to run once all users are started" },
+            { "ramp-up", "10", "Seconds over which users are started" },
+            { "think-time", "0", "Average pause (ms) of users between steps" },
+            { "timeout", "30", "Seconds to wait for every HTTP response" },
+            { "oxd-port", "9443", "Port of the oxd-server stand-in" },
+            { "op-port", "9444", "Port of the OP stand-in" },
+            { "oxd-latency", "5", "Base latency (ms) of oxd-server responses" },
+            { "op-latency", "5", "Base latency (ms) of OP responses" },
+            { "error-rate", "0", "Fraction (0-1) of stand-in responses failing with status 500" },
+            { "wait-app", "300", "Seconds to wait for the app to be reachable" }
+    };
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> options = parse(args);
+        if (options == null) {
+            usage(System.out);
+            return;
+        }
+
+        String appUrl = options.get("app").replaceAll("/+$", "");
+        int users = Integer.parseInt(options.get("users"));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+        long rampUp = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("ramp-up")));
+        long think = Long.parseLong(options.get("think-time"));
+        Duration timeout = Duration.ofSeconds(Long.parseLong(options.get("timeout")));
+        double errorRate = Double.parseDouble(options.get("error-rate"));
+
+        Browser.init(users);
+        try (StubOp op = new StubOp(Integer.parseInt(options.get("op-port")), Long.parseLong(options.get("op-latency")), errorRate);
+             StubOxd oxd = new StubOxd(Integer.parseInt(options.get("oxd-port")), Long.parseLong(options.get("oxd-latency")),
+                     errorRate, op, appUrl)) {
+
+            System.out.printf("oxd-server stand-in at %s, OP stand-in at %s%n", oxd.getBaseUrl(), op.getBaseUrl());
+            //The app registers at the oxd-server stand-in in the background, and is ready afterwards
+            awaitApp(appUrl, timeout, TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("wait-app"))));
+
+            System.out.printf("Running %d users for %d seconds (plus %d seconds of ramp-up)%n", users,
+                    TimeUnit.NANOSECONDS.toSeconds(duration), TimeUnit.NANOSECONDS.toSeconds(rampUp));
+            ExecutorService executor = newExecutor(users);
+            long start = System.nanoTime();
+            long deadline = start + rampUp + duration;
+            for (int i = 0; i < users; i++) {
+                long startAt = start + rampUp * i / users;
+                long wait = startAt - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                executor.execute(new VirtualUser(appUrl, timeout, think, deadline));
+            }
+            executor.shutdown();
+
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.out.printf("  %4ds: %d logins%n", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                        VirtualUser.LOGINS.get());
+                if (System.nanoTime() - deadline > timeout.toNanos()) {
+                    executor.shutdownNow();
+                }
+            }
+
+            report(System.out, System.nanoTime() - start);
+            System.out.printf("%nStand-in requests: oxd-server %d (%d failed on purpose), OP %d (%d failed on purpose)%n",
+                    oxd.getRequests(), oxd.getInjectedErrors(), op.getRequests(), op.getInjectedErrors());
+        }
+
+    }
+
+    private static void report(PrintStream out, long elapsedNanos) {
+
+        double seconds = elapsedNanos / 1e9;
+        out.printf("%n%-15s %9s %8s %10s %10s %10s %10s%n", "Step", "Count", "Errors", "Per sec", "p50 (ms)", "p90 (ms)", "p99 (ms)");
+        for (VirtualUser.Step step : VirtualUser.Step.values()) {
+            out.printf("%-15s %9d %8d %10.1f %10.1f %10.1f %10.1f%n", step, step.latency.getCount(), step.errors.get(),
+                    step.latency.getCount() / seconds, millis(step.latency.getPercentile(50)),
+                    millis(step.latency.getPercentile(90)), millis(step.latency.getPercentile(99)));
+        }
+        out.printf("%-15s %9d %8s %10.1f %10.1f %10.1f %10.1f%n", "LOGIN", VirtualUser.LOGINS.get(), "", VirtualUser.LOGINS.get() / seconds,
+                millis(VirtualUser.LOGIN_LATENCY.getPercentile(50)), millis(VirtualUser.LOGIN_LATENCY.getPercentile(90)),
+                millis(VirtualUser.LOGIN_LATENCY.getPercentile(99)));
+
+    }
+
+    private static double millis(double seconds) {
+        return Double.isNaN(seconds) ? 0 : seconds * 1000;
+    }
+
+    private static void awaitApp(String appUrl, Duration timeout, long maxWait) throws Exception {
+
+        System.out.printf("Waiting for the app at %s to be ready%n", appUrl);
+        long giveUp = System.nanoTime() + maxWait;
+        Browser browser = new Browser(timeout);
+        while (true) {
+            try {
+                if (browser.get(appUrl + "/ready").status == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                //Not up yet
+            }
+            if (System.nanoTime() > giveUp) {
+                throw new IllegalStateException("App not reachable at " + appUrl);
+            }
+            TimeUnit.SECONDS.sleep(1);
+        }
+
+    }
+
+    /**
+     * Uses a virtual thread per user when the JVM supports them (Java 21+), so thousands of users are cheap. Falls back
+     * to a platform thread per user otherwise.
+     */
+    private static ExecutorService newExecutor(int users) {
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(users);
+        }
+
+    }
+
+    private static Map<String, String> parse(String[] args) {
+
+        Map<String, String> options = new HashMap<>();
+        for (String[] option : OPTIONS) {
+            options.put(option[0], option[1]);
+        }
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") && eq > 2 ? arg.substring(2, eq) : null;
+            if (name == null || !options.containsKey(name)) {
+                return null;
+            }
+            options.put(name, arg.substring(eq + 1));
+        }
+        return options;
+
+    }
+
+    private static void usage(PrintStream out) {
+
+        out.println("Usage: java -jar loadtest.jar [--name=value ...]");
+        for (String[] option : OPTIONS) {
+            out.printf("  --%-12s %s (default %s)%n", option[0], option[2], option[1]);
+        }
+
+    }
+
+}
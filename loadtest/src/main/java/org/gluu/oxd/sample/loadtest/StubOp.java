@@ -0,0 +1,75 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A stand-in for the OpenID Provider. Users are authenticated right away: the authorization endpoint redirects back to
+ * the app with a code, and the end session endpoint redirects to the post logout URI. It also publishes discovery
+ * metadata and the key used to sign ID Tokens.
+ *
+ * @author jgomer
+ */
+final class StubOp extends StubServer {
+
+    private final TokenSigner signer;
+
+    StubOp(int port, long latencyMillis, double errorRate) throws Exception {
+        super(port, latencyMillis, errorRate);
+        signer = new TokenSigner();
+    }
+
+    TokenSigner getSigner() {
+        return signer;
+    }
+
+    @Override
+    void handle(HttpExchange exchange, String path, byte[] body) throws IOException {
+
+        Map<String, String> params = queryParams(exchange);
+        switch (path) {
+            case "/.well-known/openid-configuration":
+                String base = getBaseUrl();
+                respondJson(exchange, "{\"issuer\":\"" + base + "\",\"authorization_endpoint\":\"" + base + "/authorize\","
+                        + "\"end_session_endpoint\":\"" + base + "/end_session\",\"jwks_uri\":\"" + base + "/jwks\","
+                        + "\"response_types_supported\":[\"code\"],\"id_token_signing_alg_values_supported\":[\"RS256\"]}");
+                break;
+            case "/jwks":
+                respondJson(exchange, signer.getJwks());
+                break;
+            case "/authorize":
+                String redirectUri = params.get("redirect_uri");
+                if (redirectUri == null || params.get("state") == null) {
+                    respondStatus(exchange, 400);
+                } else {
+                    respondRedirect(exchange, redirectUri + (redirectUri.contains("?") ? '&' : '?') + "code=" + UUID.randomUUID()
+                            + "&state=" + URLEncoder.encode(params.get("state"), StandardCharsets.UTF_8));
+                }
+                break;
+            case "/end_session":
+                String postLogout = params.get("post_logout_redirect_uri");
+                if (postLogout == null || postLogout.isEmpty()) {
+                    respondStatus(exchange, 400);
+                } else {
+                    String state = params.get("state");
+                    respondRedirect(exchange, state == null ? postLogout : postLogout + (postLogout.contains("?") ? '&' : '?')
+                            + "state=" + URLEncoder.encode(state, StandardCharsets.UTF_8));
+                }
+                break;
+            default:
+                respondStatus(exchange, 404);
+        }
+
+    }
+
+}
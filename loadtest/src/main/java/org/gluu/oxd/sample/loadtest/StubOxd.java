@@ -0,0 +1,131 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import org.gluu.oxd.sample.bean.Json;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stand-in for oxd-server that implements the API operations used by the app on top of {@link StubOp}: authorization
+ * URLs point to the stand-in OP, and the ID Tokens issued are signed with its key and carry the nonce of the
+ * authorization request, so they pass in-process verification.
+ *
+ * @author jgomer
+ */
+final class StubOxd extends StubServer {
+
+    static final String CLIENT_ID = "@!loadtest";
+
+    private static final long TOKEN_LIFETIME = TimeUnit.MINUTES.toSeconds(5);
+
+    private final StubOp op;
+    private final String defaultRedirectUri;
+
+    //nonce of every authorization URL handed out, by state
+    private final ConcurrentMap<String, String> nonces = new ConcurrentHashMap<>();
+
+    private volatile String redirectUri;
+
+    /**
+     * @param appUrl Root URL of the app, used when it registers no redirect URI
+     */
+    StubOxd(int port, long latencyMillis, double errorRate, StubOp op, String appUrl) throws Exception {
+        super(port, latencyMillis, errorRate);
+        this.op = op;
+        defaultRedirectUri = appUrl + "/oidc/tokens.xhtml";
+    }
+
+    @Override
+    void handle(HttpExchange exchange, String path, byte[] body) throws IOException {
+
+        JsonNode params = body.length == 0 ? Json.MAPPER.createObjectNode() : Json.MAPPER.readTree(body);
+        switch (path) {
+            case "/health-check":
+                respondJson(exchange, "{\"status\":\"running\"}");
+                break;
+            case "/register-site":
+                redirectUri = params.path("redirect_uris").path(0).asText(null);
+                respondJson(exchange, "{\"oxd_id\":\"" + UUID.randomUUID() + "\",\"client_id\":\"" + CLIENT_ID
+                        + "\",\"client_secret\":\"" + UUID.randomUUID() + "\"}");
+                break;
+            case "/get-client-token":
+                respondJson(exchange, "{\"access_token\":\"" + UUID.randomUUID() + "\",\"expires_in\":3600,\"scope\":[\"openid\",\"oxd\"]}");
+                break;
+            case "/get-access-token-by-refresh-token":
+                if (params.path("refresh_token").asText("").isEmpty()) {
+                    respondStatus(exchange, 400);
+                } else {
+                    respondJson(exchange, "{\"access_token\":\"" + UUID.randomUUID() + "\",\"expires_in\":" + TOKEN_LIFETIME
+                            + ",\"refresh_token\":\"" + UUID.randomUUID() + "\",\"scope\":[\"openid\",\"profile\",\"email\"]}");
+                }
+                break;
+            case "/get-authorization-url":
+                respondJson(exchange, "{\"authorization_url\":\"" + authorizationUrl() + "\"}");
+                break;
+            case "/get-tokens-by-code":
+                String nonce = nonces.remove(params.path("state").asText(""));
+                if (nonce == null || params.path("code").asText("").isEmpty()) {
+                    respondStatus(exchange, 400);
+                } else {
+                    respondJson(exchange, tokens(nonce));
+                }
+                break;
+            case "/get-user-info":
+                respondJson(exchange, "{\"sub\":\"loadtest\",\"name\":\"Jane Doe\",\"given_name\":\"Jane\",\"family_name\":\"Doe\","
+                        + "\"email\":\"janedoe@example.org\",\"email_verified\":true,\"locale\":\"en-US\"}");
+                break;
+            case "/get-logout-uri":
+                respondJson(exchange, "{\"uri\":\"" + op.getBaseUrl() + "/end_session?post_logout_redirect_uri="
+                        + encode(params.path("post_logout_redirect_uri").asText("")) + "&state=" + UUID.randomUUID() + "\"}");
+                break;
+            default:
+                respondStatus(exchange, 404);
+        }
+
+    }
+
+    private String authorizationUrl() {
+
+        String state = UUID.randomUUID().toString();
+        String nonce = UUID.randomUUID().toString();
+        nonces.put(state, nonce);
+        return op.getBaseUrl() + "/authorize?response_type=code&client_id=" + encode(CLIENT_ID) + "&redirect_uri="
+                + encode(redirectUri == null ? defaultRedirectUri : redirectUri) + "&scope=openid+profile+email&state=" + state
+                + "&nonce=" + nonce;
+
+    }
+
+    private String tokens(String nonce) throws IOException {
+
+        long now = System.currentTimeMillis() / 1000;
+        String iss = op.getBaseUrl();
+        String claims = "{\"iss\":\"" + iss + "\",\"aud\":\"" + CLIENT_ID + "\",\"sub\":\"loadtest\",\"nonce\":\"" + nonce
+                + "\",\"iat\":" + now + ",\"auth_time\":" + now + ",\"exp\":" + (now + TOKEN_LIFETIME) + "}";
+        try {
+            return "{\"access_token\":\"" + UUID.randomUUID() + "\",\"expires_in\":" + TOKEN_LIFETIME
+                    + ",\"refresh_token\":\"" + UUID.randomUUID() + "\",\"id_token\":\"" + op.getSigner().sign(claims)
+                    + "\",\"id_token_claims\":{\"iss\":[\"" + iss + "\"],\"aud\":[\"" + CLIENT_ID + "\"],\"sub\":[\"loadtest\"],"
+                    + "\"nonce\":[\"" + nonce + "\"],\"iat\":[\"" + now + "\"],\"exp\":[\"" + (now + TOKEN_LIFETIME) + "\"]}}";
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Base class of the HTTPS stand-ins for oxd-server and the OP. Every response is delayed by a configurable latency
+ * (plus a random jitter of up to the same amount), and a configurable fraction of requests fail with status 500.
+ * <p>The keystore found at the root of the project is used (see <code>stub.keystore</code> system property).</p>
+ *
+ * @author jgomer
+ */
+abstract class StubServer implements AutoCloseable {
+
+    private final HttpsServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double errorRate;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+
+    StubServer(int port, long latencyMillis, double errorRate) throws Exception {
+
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+
+        char[] password = System.getProperty("stub.keystore.password", "oxtrust").toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = Files.newInputStream(Paths.get(System.getProperty("stub.keystore", "../keystore")))) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, getClass().getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpsServer.create(new InetSocketAddress("localhost", port), 4096);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+        server.start();
+
+    }
+
+    /**
+     * Answers a request. Implementations call one of the respond methods
+     */
+    abstract void handle(HttpExchange exchange, String path, byte[] body) throws IOException;
+
+    String getBaseUrl() {
+        return "https://localhost:" + server.getAddress().getPort();
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getInjectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static void respondJson(HttpExchange exchange, String json) throws IOException {
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+
+    }
+
+    static void respondRedirect(HttpExchange exchange, String location) throws IOException {
+        exchange.getResponseHeaders().set("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+    }
+
+    static void respondStatus(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    static Map<String, String> queryParams(HttpExchange exchange) {
+
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+
+        requests.increment();
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis + random.nextLong(latencyMillis + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            injectedErrors.increment();
+            respondStatus(exchange, 500);
+            return;
+        }
+
+        try {
+            handle(exchange, exchange.getRequestURI().getPath(), body);
+        } catch (Exception e) {
+            respondStatus(exchange, 500);
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.loadtest;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Issues RS256-signed JWTs with a key generated at startup, so the app can verify ID Tokens of the stand-in OP
+ * in-process (see <code>oxd.sample.verify-id-token</code>).
+ *
+ * @author jgomer
+ */
+final class TokenSigner {
+
+    private static final String KEY_ID = "loadtest-rs256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final KeyPair keyPair;
+
+    TokenSigner() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    /**
+     * Signs a set of claims.
+     *
+     * @param claimsJson Payload of the token
+     * @return The compact serialization of the token
+     */
+    String sign(String claimsJson) throws GeneralSecurityException {
+
+        String header = "{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"" + KEY_ID + "\"}";
+        String input = encode(header.getBytes(StandardCharsets.UTF_8)) + "." + encode(claimsJson.getBytes(StandardCharsets.UTF_8));
+
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(input.getBytes(StandardCharsets.US_ASCII));
+        return input + "." + encode(signature.sign());
+
+    }
+
+    /**
+     * @return A JWK set containing the public key
+     */
+    String getJwks() {
+
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        return "{\"keys\":[{\"kty\":\"RSA\",\"use\":\"sig\",\"alg\":\"RS256\",\"kid\":\"" + KEY_ID + "\",\"n\":\""
+                + encode(unsigned(key.getModulus())) + "\",\"e\":\"" + encode(unsigned(key.getPublicExponent())) + "\"}]}";
+
+    }
+
+    private static byte[] unsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    private static String encode(byte[] bytes) {
+        return ENCODER.encodeToString(bytes);
+    }
+
+}
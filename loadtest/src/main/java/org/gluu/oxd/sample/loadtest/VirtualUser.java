@@ -0,0 +1,161 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.loadtest;
+
+import org.gluu.oxd.sample.bean.FlowManager.Stage;
+import org.gluu.oxd.sample.metrics.Counter;
+import org.gluu.oxd.sample.metrics.Histogram;
+import org.gluu.oxd.sample.metrics.Metrics;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Goes through the whole sample flow over and over like a real user would: every step is a button click whose
+ * redirects are followed and whose page (plus the JSON payloads the page loads) is checked. A step failing is counted
+ * as an error and the user starts over in a new session.
+ *
+ * @author jgomer
+ */
+final class VirtualUser implements Runnable {
+
+    /**
+     * Steps of a login: reaching every stage of the flow, plus logging out at the OP and landing back in the app.
+     */
+    enum Step {
+
+        PRE_AUTHZ_URL(Stage.PRE_AUTHZ_URL),
+        TOKEN_REQUEST(Stage.TOKEN_REQUEST),
+        TOKEN_RESPONSE(Stage.TOKEN_RESPONSE),
+        USER_INFO(Stage.USER_INFO),
+        LOGOUT_OP(Stage.LOGOUT_OP),
+        END_SESSION(null);
+
+        final Histogram latency;
+        final Counter errors;
+        private final String page;
+
+        Step(Stage stage) {
+            page = stage == null ? "post-logout.xhtml" : stage.getUrl();
+            latency = Metrics.histogram("loadtest_step_duration_seconds", "Time to complete a step of the flow", "step", name());
+            errors = Metrics.counter("loadtest_step_errors_total", "Steps of the flow that failed", "step", name());
+        }
+
+    }
+
+    static final Counter LOGINS = Metrics.counter("loadtest_logins_total", "Flows completed from start to logout");
+    static final Histogram LOGIN_LATENCY = Metrics.histogram("loadtest_login_duration_seconds",
+            "Time to complete a flow from start to logout, think time excluded");
+
+    private final String appUrl;
+    private final Duration timeout;
+    private final long thinkMillis;
+    private final long deadline;
+
+    VirtualUser(String appUrl, Duration timeout, long thinkMillis, long deadline) {
+        this.appUrl = appUrl;
+        this.timeout = timeout;
+        this.thinkMillis = thinkMillis;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            try {
+                login(new Browser(timeout));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    private void login(Browser browser) throws InterruptedException {
+
+        long flowNanos = 0;
+        Browser.Page page = null;
+        for (Step step : Step.values()) {
+            long start = System.nanoTime();
+            try {
+                page = perform(step, browser, page);
+                check(step, page);
+            } catch (IOException e) {
+                step.errors.increment();
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            step.latency.record(elapsed);
+            flowNanos += elapsed;
+
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+            think();
+        }
+        LOGINS.increment();
+        LOGIN_LATENCY.record(flowNanos);
+
+    }
+
+    private Browser.Page perform(Step step, Browser browser, Browser.Page page) throws IOException, InterruptedException {
+
+        switch (step) {
+            case PRE_AUTHZ_URL:
+                return browser.get(appUrl + "/oidc/" + step.page);
+            case TOKEN_RESPONSE:
+                page = browser.submit(page);
+                //The page fetches these once rendered
+                fetch(browser, "tokens");
+                fetch(browser, "id-token");
+                return page;
+            case USER_INFO:
+                page = browser.submit(page);
+                fetch(browser, "userinfo");
+                return page;
+            default:
+                return browser.submit(page);
+        }
+
+    }
+
+    private void fetch(Browser browser, String payload) throws IOException, InterruptedException {
+
+        Browser.Page json = browser.get(appUrl + "/oidc/json/" + payload);
+        if (json.status != 200) {
+            throw new IOException("Status " + json.status + " for payload " + payload);
+        }
+
+    }
+
+    private static void check(Step step, Browser.Page page) throws IOException {
+
+        if (page.status != 200) {
+            throw new IOException("Status " + page.status + " at " + page.uri);
+        }
+        if (!page.uri.getPath().endsWith("/" + step.page)) {
+            throw new IOException("Landed on " + page.uri + " instead of " + step.page);
+        }
+        //Pages show errors (e.g. no tokens obtained, an OP error or a stage mismatch) this way
+        if (page.body.contains("bg-danger") || page.body.contains("bg-warning")) {
+            throw new IOException("Error rendered at " + page.uri);
+        }
+        if (step != Step.END_SESSION && !page.hasForm()) {
+            throw new IOException("No form to continue at " + page.uri);
+        }
+
+    }
+
+    private void think() throws InterruptedException {
+        if (thinkMillis > 0) {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(thinkMillis / 2, thinkMillis * 3 / 2 + 1));
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.assets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build step (see <code>pom.xml</code>) that turns the files of the static directory into immutable assets: every file
+ * is copied under a name containing a digest of its contents, and text files get precompressed gzip and, if the
+ * <code>brotli</code> command is available, brotli variants. A manifest mapping original to hashed names is written
+ * to <code>WEB-INF/assets.properties</code> for {@link StaticAssets} to use.
+ * <p>This class is not part of the webapp: it lives in a source root of its own (<code>src/build/java</code>) that is
+ * compiled for the build only.</p>
+ * <p>Usage: <code>AssetPipeline source-dir output-dir</code></p>
+ *
+ * @author jgomer
+ */
+public final class AssetPipeline {
+
+    private static final List<String> COMPRESSIBLE = Arrays.asList(".css", ".js", ".svg", ".html", ".json", ".txt", ".map");
+
+    //Number of hex digits of the digest kept in file names
+    private static final int HASH_LENGTH = 12;
+
+    private final Path source;
+    private final Path output;
+    private boolean brotli = true;
+
+    private AssetPipeline(Path source, Path output) {
+        this.source = source;
+        this.output = output;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 2) {
+            //Not exiting the JVM: this normally runs inside Maven's
+            throw new IllegalArgumentException("Usage: AssetPipeline source-dir output-dir");
+        }
+        new AssetPipeline(Paths.get(args[0]), Paths.get(args[1])).run();
+
+    }
+
+    private void run() throws IOException, InterruptedException {
+
+        Path target = output.resolve(StaticAssets.PREFIX);
+        Files.createDirectories(target);
+        //Drop the outcome of previous builds, whose names no longer match the contents
+        try (Stream<Path> stale = Files.list(target)) {
+            for (Path file : stale.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(source)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        Properties manifest = new Properties();
+        for (Path file : files) {
+            byte[] content = Files.readAllBytes(file);
+            String name = file.getFileName().toString();
+            String hashed = hashedName(name, content);
+            manifest.setProperty(name, hashed);
+
+            Path copy = target.resolve(hashed);
+            Files.write(copy, content);
+            if (isCompressible(name)) {
+                gzip(content, target.resolve(hashed + ".gz"));
+                brotli(copy, target.resolve(hashed + ".br"));
+            }
+            System.out.printf("%s -> %s%s%n", name, StaticAssets.PREFIX, hashed);
+        }
+
+        Path manifestFile = output.resolve(StaticAssets.MANIFEST.substring(1));
+        Files.createDirectories(manifestFile.getParent());
+        try (OutputStream out = Files.newOutputStream(manifestFile)) {
+            manifest.store(out, "Generated by AssetPipeline, do not edit");
+        }
+
+    }
+
+    private static String hashedName(String name, byte[] content) {
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hash = new StringBuilder();
+            for (int i = 0; i < HASH_LENGTH / 2; i++) {
+                hash.append(String.format("%02x", digest[i]));
+            }
+            //bootstrap.min.css becomes bootstrap.min.<hash>.css
+            int dot = name.lastIndexOf('.');
+            return dot < 0 ? name + "." + hash : name.substring(0, dot) + "." + hash + name.substring(dot);
+        } catch (NoSuchAlgorithmException e) {
+            //Every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+
+    }
+
+    private static boolean isCompressible(String name) {
+        return COMPRESSIBLE.stream().anyMatch(name::endsWith);
+    }
+
+    private static void gzip(byte[] content, Path variant) throws IOException {
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(variant)) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(content);
+        }
+
+    }
+
+    /**
+     * The JDK has no brotli encoder, so the reference command line tool is used when installed
+     */
+    private void brotli(Path file, Path variant) throws IOException, InterruptedException {
+
+        if (brotli) {
+            try {
+                Process process = new ProcessBuilder("brotli", "--best", "--force", "--output=" + variant, file.toString())
+                        .inheritIO().start();
+                brotli = process.waitFor(2, TimeUnit.MINUTES) && process.exitValue() == 0;
+            } catch (IOException e) {
+                brotli = false;
+            }
+            if (!brotli) {
+                Files.deleteIfExists(variant);
+                System.out.println("brotli command not available, only gzip variants will be generated");
+            }
+        }
+
+    }
+
+}
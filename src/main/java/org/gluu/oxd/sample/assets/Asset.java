@@ -0,0 +1,166 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.assets;
+
+import javax.servlet.ServletContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable static asset along with its precompressed variants. Contents are loaded once: files are memory-mapped
+ * when the webapp is exploded on disk, and copied to direct buffers otherwise, so they do not take heap space.
+ *
+ * @author jgomer
+ */
+public final class Asset {
+
+    public static final String IDENTITY = "identity";
+
+    //Most preferred first
+    private static final String[][] ENCODINGS = { { "br", ".br" }, { "gzip", ".gz" }, { IDENTITY, "" } };
+
+    private final String name;
+    private final String contentType;
+    private final Map<String, ByteBuffer> variants = new LinkedHashMap<>();
+
+    private Asset(String name, String contentType) {
+        this.name = name;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Loads an asset produced at build time (see {@link StaticAssets}).
+     *
+     * @param name Hashed name of the asset
+     * @return The asset or null if it is not found in the webapp
+     */
+    static Asset load(ServletContext context, String name) throws IOException {
+
+        Asset asset = new Asset(name, context.getMimeType(name));
+        for (String[] encoding : ENCODINGS) {
+            ByteBuffer content = read(context, "/" + StaticAssets.PREFIX + name + encoding[1]);
+            if (content != null) {
+                asset.variants.put(encoding[0], content);
+            }
+        }
+        return asset.variants.containsKey(IDENTITY) ? asset : null;
+
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Chooses the preferred variant among those acceptable by the client.
+     *
+     * @param acceptEncoding Value of the <code>Accept-Encoding</code> request header (can be null)
+     * @return A content coding such as <code>gzip</code>, {@link #IDENTITY}, or null if the client refuses every
+     * variant (e.g. <code>identity;q=0</code> and no other coding available)
+     */
+    public String negotiate(String acceptEncoding) {
+
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        Map<String, Float> accepted = parse(acceptEncoding);
+        Float any = accepted.get("*");
+        for (String encoding : variants.keySet()) {
+            Float q = accepted.getOrDefault(encoding, any);
+            if (encoding.equals(IDENTITY)) {
+                //Identity is acceptable unless explicitly excluded (RFC 7231, section 5.3.4)
+                return q == null || q > 0 ? IDENTITY : null;
+            }
+            if (q != null && q > 0) {
+                return encoding;
+            }
+        }
+        return null;
+
+    }
+
+    /**
+     * Returns the contents of a variant, ready to be written (every call returns an independent buffer).
+     *
+     * @param encoding A value returned by {@link #negotiate(String)}
+     */
+    public ByteBuffer getContent(String encoding) {
+        return variants.get(encoding).duplicate();
+    }
+
+    /**
+     * Returns a strong entity tag, different for every variant.
+     */
+    public String getETag(String encoding) {
+        return "\"" + name + (encoding.equals(IDENTITY) ? "" : "-" + encoding) + "\"";
+    }
+
+    private static Map<String, Float> parse(String acceptEncoding) {
+
+        Map<String, Float> accepted = new LinkedHashMap<>();
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            float q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            accepted.put(coding.equals("x-gzip") ? "gzip" : coding, q);
+        }
+        return accepted;
+
+    }
+
+    private static ByteBuffer read(ServletContext context, String path) throws IOException {
+
+        String realPath = context.getRealPath(path);
+        if (realPath != null) {
+            Path file = Paths.get(realPath);
+            if (Files.isRegularFile(file)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+        }
+
+        try (InputStream in = context.getResourceAsStream(path)) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                bytes.write(buffer, 0, n);
+            }
+            ByteBuffer content = ByteBuffer.allocateDirect(bytes.size());
+            content.put(bytes.toByteArray()).flip();
+            return content;
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.assets;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.servlet.ServletContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A bean that resolves the URLs of static files to their content-hashed versions produced at build time by
+ * <code>AssetPipeline</code> (see <code>src/build/java</code>), and holds such versions in memory so they can be
+ * served with far-future cache headers.
+ * <p>Pages reference assets with <code>#{root}/#{assets.path('file-name')}</code>. If the webapp was packaged without
+ * running the build step, files are referenced in the <code>static</code> directory as is.</p>
+ *
+ * @author jgomer
+ */
+@Named("assets")
+@ApplicationScoped
+public class StaticAssets {
+
+    //Locations of the files produced by the build step
+    static final String MANIFEST = "/WEB-INF/assets.properties";
+    static final String PREFIX = "assets/";
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    @Inject
+    private ServletContext context;
+
+    //Hashed name by original name
+    private Map<String, String> names = Collections.emptyMap();
+    //Assets by hashed name
+    private Map<String, Asset> assets = Collections.emptyMap();
+
+    @PostConstruct
+    private void init() {
+
+        Properties manifest = new Properties();
+        try (InputStream in = context.getResourceAsStream(MANIFEST)) {
+            if (in == null) {
+                logger.warn("No assets manifest found, static files will be served without long-term caching");
+                return;
+            }
+            manifest.load(in);
+
+            Map<String, String> names = new HashMap<>();
+            Map<String, Asset> assets = new HashMap<>();
+            for (String name : manifest.stringPropertyNames()) {
+                String hashed = manifest.getProperty(name);
+                Asset asset = Asset.load(context, hashed);
+                if (asset == null) {
+                    logger.warn("Asset {} is missing", hashed);
+                } else {
+                    names.put(name, hashed);
+                    assets.put(hashed, asset);
+                }
+            }
+            this.names = names;
+            this.assets = assets;
+            logger.info("Loaded {} static assets", assets.size());
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Returns the path (relative to the context root) where a static file is served.
+     *
+     * @param name Name of a file in the <code>static</code> directory
+     */
+    public String path(String name) {
+        String hashed = names.get(name);
+        return hashed == null ? "static/" + name : PREFIX + hashed;
+    }
+
+    /**
+     * Looks up an asset by its hashed name.
+     *
+     * @return The asset, or null if there is no such asset
+     */
+    public Asset get(String hashedName) {
+        return assets.get(hashedName);
+    }
+
+}
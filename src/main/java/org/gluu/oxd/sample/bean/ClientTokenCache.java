@@ -0,0 +1,202 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.common.response.GetClientTokenResponse;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the Bearer token (obtained by means of the Get Client Token operation) that protects calls to oxd-server.
+ * <p>The token is reused until shortly before it expires. A background refresh is scheduled ahead of expiration, and
+ * concurrent callers that find no usable token share a single in-flight request to oxd instead of issuing one each.
+ * The scheduler only triggers background refreshes: the request to oxd runs in the executor of oxd calls.</p>
+ *
+ * @author jgomer
+ */
+final class ClientTokenCache {
+
+    private static final long REFRESH_MARGIN_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("oxd.client-token.refresh-margin", 60L));
+    private static final long EXPIRY_SAFETY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final AtomicReference<CompletableFuture<Token>> inFlight = new AtomicReference<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    //Written while holding this object's lock
+    private volatile Token token;
+    private long generation;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * @param scheduler Triggers background refreshes
+     * @param executor  Runs background refreshes
+     */
+    ClientTokenCache(ScheduledExecutorService scheduler, Executor executor) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a usable Bearer token, calling the loader only if no cached token exists or the cached one is about to expire.
+     *
+     * @param loader Issues the actual Get Client Token operation
+     * @return The token value prefixed with "Bearer "
+     * @throws Exception If the token could not be obtained
+     */
+    String get(Callable<GetClientTokenResponse> loader) throws Exception {
+
+        Token current = token;
+        if (current != null && current.expiresAt - System.nanoTime() > 0) {
+            hits.increment();
+            return current.value;
+        }
+        misses.increment();
+        try {
+            return refresh(loader, current).get().value;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Discards the cached token (if any) and cancels its pending refresh. Refreshes in progress will not populate the cache.
+     */
+    synchronized void invalidate() {
+
+        generation++;
+        token = null;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+
+    }
+
+    /**
+     * Asks oxd for a token, unless a request is in flight already or the token to replace was replaced meanwhile
+     * @param stale The token the caller wants replaced (null if it found none)
+     */
+    private CompletableFuture<Token> refresh(Callable<GetClientTokenResponse> loader, Token stale) {
+
+        CompletableFuture<Token> mine = new CompletableFuture<>();
+        while (!inFlight.compareAndSet(null, mine)) {
+            CompletableFuture<Token> existing = inFlight.get();
+            if (existing != null) {
+                //Somebody else is already asking oxd for a token
+                return existing;
+            }
+        }
+
+        long gen;
+        Token current;
+        synchronized (this) {
+            gen = generation;
+            current = token;
+        }
+        if (current != null && current != stale && current.expiresAt - System.nanoTime() > 0) {
+            //A request that just completed stored a fresh token
+            inFlight.compareAndSet(mine, null);
+            mine.complete(current);
+            return mine;
+        }
+        try {
+            GetClientTokenResponse response = loader.call();
+            long lifetime = TimeUnit.SECONDS.toNanos(Math.max(response.getExpiresIn(), 0));
+            long now = System.nanoTime();
+
+            Token fresh = new Token("Bearer " + response.getAccessToken(), now + lifetime - Math.min(EXPIRY_SAFETY_NANOS, lifetime / 10));
+            store(fresh, gen, Math.max(lifetime - REFRESH_MARGIN_NANOS, lifetime / 2), loader);
+            mine.complete(fresh);
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+        } finally {
+            inFlight.compareAndSet(mine, null);
+        }
+        return mine;
+
+    }
+
+    private synchronized void store(Token fresh, long gen, long refreshDelay, Callable<GetClientTokenResponse> loader) {
+
+        if (gen != generation) {
+            logger.debug("Discarding client token obtained before cache invalidation");
+            return;
+        }
+        token = fresh;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        if (refreshDelay <= 0) {
+            //Token lifetime is unknown, do not keep refreshing in the background
+            return;
+        }
+
+        try {
+            scheduledRefresh = scheduler.schedule(() -> backgroundRefresh(loader, fresh), refreshDelay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            //Application is shutting down
+            scheduledRefresh = null;
+        }
+
+    }
+
+    private void backgroundRefresh(Callable<GetClientTokenResponse> loader, Token stale) {
+
+        logger.debug("Refreshing client token ahead of expiration");
+        try {
+            executor.execute(() -> refresh(loader, stale).whenComplete((t, e) -> {
+                if (e != null) {
+                    logger.warn("Background refresh of client token failed: {}", e.getMessage());
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            //The token will be requested on demand once it expires
+            logger.warn("Background refresh of client token not started: {}", e.getMessage());
+        }
+
+    }
+
+    private static final class Token {
+
+        private final String value;
+        private final long expiresAt;
+
+        private Token(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
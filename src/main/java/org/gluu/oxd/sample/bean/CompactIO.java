@@ -0,0 +1,80 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers to write and read values in a compact binary form: variable-length integers, and length-prefixed UTF-8
+ * strings and byte arrays (a prefix of zero denotes null).
+ *
+ * @author jgomer
+ */
+final class CompactIO {
+
+    private CompactIO() {
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+
+    }
+
+    static void writeBytes(DataOutput out, byte[] value) throws IOException {
+
+        if (value == null) {
+            writeVarInt(out, 0);
+        } else {
+            writeVarInt(out, value.length + 1);
+            out.write(value);
+        }
+
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] value = readBytes(in);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+}
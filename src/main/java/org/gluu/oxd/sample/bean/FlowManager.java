@@ -6,36 +6,75 @@
 package org.gluu.oxd.sample.bean;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
 import org.gluu.oxd.client.GetTokensByCodeResponse2;
+import org.gluu.oxd.common.response.GetClientTokenResponse;
+import org.gluu.oxd.sample.filter.StatelessFlowFilter;
+import org.gluu.oxd.sample.metrics.Metrics;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.SessionScoped;
 import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
 
 /**
  * A class employed to maintain the state of the sample Authentication workflow showcased by this application. It helps
  * modeling the steps as well as do page navigation.
+ * <p>Calls to oxd are issued asynchronously: actions start the call and redirect to the page of the next stage, whose
+ * rendering is deferred by {@link org.gluu.oxd.sample.filter.FlowAsyncFilter} until results are available (see
+ * {@link #prepareStage()}).</p>
+ * <p>Once tokens are obtained, the access token is refreshed in the background ahead of its expiration for as long as
+ * the session lasts (see {@link TokenRefresher}), except in stateless mode. An access token found expired when user info is requested is refreshed
+ * first, so the user does not have to go through the authorization round trip again.</p>
+ * <p>Every flow is bound to a {@link Tenant}, the default one unless {@link org.gluu.oxd.sample.filter.TenantFilter}
+ * selects another for the request that starts the flow.</p>
+ * <p>Sampled flows keep a timeline of their stages, oxd calls, and redirects (see {@link FlowTracer}), finished when the
+ * flow starts over, its state is replaced by one coming from another node, or the session (in stateless mode, the
+ * request) ends.</p>
+ * <p>Instances have a custom serialized form (see {@link #writeObject(ObjectOutputStream)}) so passivating and replicating
+ * sessions is cheap. In stateless mode (see {@link StatelessFlowFilter}) no session is used: this bean is request scoped
+ * instead (see {@link FlowScopeExtension}) and its state travels in a cookie.</p>
  * @author jgomer
  */
 @Named("flow")
 @SessionScoped
 public class FlowManager implements Serializable {
 
+    private static final long serialVersionUID = 2L;
+
     @Inject
     private OxdService oxdService;
 
+    @Inject
+    private FlowTracer flowTracer;
+
     @Inject
     private HttpServletRequest req;
 
@@ -73,20 +112,70 @@ public class FlowManager implements Serializable {
 
     }
 
-    private ObjectMapper mapper;
-    private Logger logger = LogManager.getLogger(getClass());
-    private Stage stage;
+    //Max time to wait for an oxd call when a page is rendered before its results are available
+    private static final long AWAIT_SECONDS = Long.getLong("oxd.sample.await-timeout", 30L);
+
+    //Whether user info and logout URL are requested as soon as tokens are obtained instead of waiting for their stages
+    private static final boolean PREFETCH = Boolean.getBoolean("oxd.sample.prefetch");
+
+    //Whether ID Tokens are verified by the app itself and the claims shown are taken from the verified token
+    private static final boolean VERIFY_ID_TOKEN = Boolean.getBoolean("oxd.sample.verify-id-token");
 
-    //These class fields hold data to be displayed in the UI.  Values are grabbed by oxdService being when the workflow is running
-    private String authzUrl;
-    private String code;
-    private String state;
-    private String tokensReponseAsJson;
-    private String accessToken;
-    private String idToken;
-    private String idTokenAsJson;
-    private String userInfoReponseAsJson;
-    private String logoutUrl;
+    //Version of the format produced by exportState
+    private static final byte STATE_FORMAT = 5;
+
+    //Version of the serialized form written by writeObject
+    private static final byte SERIAL_FORMAT = 5;
+
+    /**
+     * Key of the {@link ThreadContext} entry holding the correlation id of the flow a thread is working on
+     */
+    public static final String FLOW_ID = "flowId";
+
+    private transient Logger logger = LogManager.getLogger(getClass());
+    private transient Stage stage;
+
+    //Id of the tenant the flow is bound to (null for the default tenant). It survives resets of the flow
+    private transient String tenantId;
+
+    //Correlation id of the current login flow, included in log lines. A new one is generated every time the flow starts over
+    private transient String flowId;
+
+    //Timeline of the current login flow, if sampled (see FlowTracer)
+    private transient FlowTrace trace;
+
+    //Time (epoch millis) at which the exported state the current one derives from was issued, see importState
+    private transient long syncedAt;
+
+    //Time (System.nanoTime) at which the current stage was entered
+    private transient long stageEnteredAt;
+
+    //Pending (or completed) oxd calls. Data fields below are updated by these when they complete
+    private transient CompletableFuture<String> authzUrlFuture;
+    private transient CompletableFuture<Void> tokensFuture;
+    private transient CompletableFuture<Void> userInfoFuture;
+    private transient CompletableFuture<Void> logoutUrlFuture;
+    private transient CompletableFuture<Void> refreshFuture;
+
+    //Background refresh of the access token, if one is scheduled
+    private transient TokenRefresher.Handle refreshHandle;
+
+    //These class fields hold data to be displayed in the UI.  Values are grabbed by oxdService being when the workflow is running.
+    //JSON payloads are kept as compact UTF-8 bytes and only pretty-printed when a page is rendered.
+    //All of them are written by writeObject
+    private transient String authzUrl;
+    private transient String code;
+    private transient String state;
+    private transient byte[] tokensResponse;
+    private transient String accessToken;
+    private transient long accessTokenExpiresAt;
+    //expires_in of the token response, needed to rebuild such response when restoring the flow in another node
+    private transient int tokensExpiresIn;
+    private transient String refreshToken;
+    private transient String idToken;
+    private transient byte[] idTokenClaims;
+    private transient byte[] userInfoResponse;
+    private transient String logoutUrl;
 
     /**
      * Obtains an authorization URL and updates internal object state
@@ -94,72 +183,82 @@ public class FlowManager implements Serializable {
      * @throws Exception If an error was presented when retrieving the information from oxd.
      */
     public String getAuthorizationUrl() throws Exception{
-        authzUrl=oxdService.getAuthzUrl();
-        return authzUrl;
+
+        try {
+            return startAuthorizationUrl().get(AWAIT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+
     }
 
     /**
      * Starts the second step of the flow ("Client sends the request to the Authorization Server") by redirecting to the
-     * URL previously retrieved by {@link #getAuthorizationUrl()}
-     * @throws IOException If the redirection could not be carried out
+     * URL previously retrieved by {@link #getAuthorizationUrl()}. If such URL is not available (yet), the page of the
+     * current step is shown again, which waits for it without holding a thread
+     * @throws Exception If the redirection could not be carried out
      */
-    public void goAuthenticate() throws IOException {
-        redirectExternal(authzUrl);
-        stage= Stage.TOKEN_REQUEST;
+    public void goAuthenticate() throws Exception {
+
+        CompletableFuture<String> future = startAuthorizationUrl();
+        String url = future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+        if (url == null) {
+            redirect();
+            return;
+        }
+        moveTo(Stage.TOKEN_REQUEST);
+        traceRedirect("authorization-endpoint");
+        redirectExternal(url);
+
     }
 
     /**
-     * Updates the values of the fields that will be shown in the page of step "ID Token and Access Token received"
+     * Requests the tokens to be shown in the page of step "ID Token and Access Token received" and redirects to such page
+     * @throws IOException If there was an error redirecting
      */
-    public void retrieveTokens() {
-
-        try {
-            GetTokensByCodeResponse2 response = oxdService.getTokens(code, state);
-            idTokenAsJson = mapper.writeValueAsString(response.getIdTokenClaims());
-            response.setIdTokenClaims(null);
-            tokensReponseAsJson=mapper.writeValueAsString(response);
-
-            accessToken = response.getAccessToken();
-            idToken = response.getIdToken();
-        }
-        catch (Exception e){
-            logger.error(e.getMessage(), e);
-        }
-        stage= Stage.TOKEN_RESPONSE;
+    public void retrieveTokens() throws IOException{
+
+        tokensFuture = oxdService.getTokensAsync(getTenant(), code, state).handle((response, e) -> {
+            if (e == null) {
+                onTokens(response);
+                if (PREFETCH && accessToken != null) {
+                    //Fan out: the following stages will find these calls already in progress or completed
+                    startUserInfo();
+                    startLogoutUrl();
+                }
+            } else {
+                logger.error(e.getMessage(), e);
+            }
+            return null;
+        });
+        moveTo(Stage.TOKEN_RESPONSE);
+        redirect();
 
     }
 
     /**
-     * Updates the values of the fields that will be shown in the page of step "Obtain user claims" and redirects to such page
+     * Requests the claims to be shown in the page of step "Obtain user claims" and redirects to such page
      * @throws IOException If there was an error redirecting
      */
     public void retrieveUserInfo() throws IOException{
 
-        try {
-            JsonNode response = oxdService.getUserInfo(accessToken);
-            userInfoReponseAsJson=mapper.writeValueAsString(response);
-        }
-        catch (Exception e){
-            logger.error(e.getMessage(), e);
-        }
-        stage= Stage.USER_INFO;
+        await(tokensFuture);
+        startUserInfo();
+        moveTo(Stage.USER_INFO);
         redirect();
 
     }
 
     /**
-     * Redirects to the page that shows "Logout" info after obtaining a logout url
+     * Redirects to the page that shows "Logout" info after requesting a logout url
      * @throws Exception If there was an error redirecting
      */
     public void logout() throws Exception{
 
-        try{
-            logoutUrl=oxdService.getLogoutUrl(idToken);
-        }
-        catch (Exception e){
-            logger.error(e.getMessage(), e);
-        }
-        stage= Stage.LOGOUT_OP;
+        startLogoutUrl();
+        moveTo(Stage.LOGOUT_OP);
         redirect();
 
     }
@@ -169,31 +268,141 @@ public class FlowManager implements Serializable {
      * @throws Exception If there was an error redirecting
      */
     public void goLogout() throws Exception{
-        redirectExternal(logoutUrl);
+        String url = getLogoutUrl();
+        moveTo(Stage.PRE_AUTHZ_URL);
+        traceRedirect("end-session-endpoint");
         resetFields();
+        redirectExternal(url);
+    }
+
+    /**
+     * Starts (if not already started, or if a former attempt failed) the oxd call whose results are needed to render the
+     * page of the current stage
+     * @return A future that completes once such results are available or null if the page needs no oxd data
+     */
+    public synchronized CompletableFuture<?> prepareStage() {
+
+        switch (stage) {
+            case PRE_AUTHZ_URL:
+                return startAuthorizationUrl();
+            case TOKEN_RESPONSE:
+                return tokensFuture;
+            case USER_INFO:
+                return prepareUserInfo();
+            case LOGOUT_OP:
+                if (logoutUrl == null) {
+                    startLogoutUrl();
+                }
+                return logoutUrlFuture;
+            default:
+                return null;
+        }
+
     }
 
     public Stage getStage() {
         return stage;
     }
 
+    /**
+     * Returns the correlation id of the current login flow. Log lines written while this id is in the
+     * {@link ThreadContext} (under key {@link #FLOW_ID}) carry it, and so do the lines of the oxd calls issued meanwhile.
+     */
+    public String getFlowId() {
+        return flowId;
+    }
+
+    /**
+     * Returns the tenant the flow is bound to. If such tenant was removed, the default tenant is returned.
+     */
+    public Tenant getTenant() {
+        Tenant tenant = oxdService.getTenants().get(tenantId);
+        return tenant == null ? oxdService.getTenants().getDefault() : tenant;
+    }
+
+    /**
+     * Binds the flow to a tenant. If the flow was bound to a different one, it starts over.
+     * @param tenant A tenant (see {@link OxdService#getTenants()})
+     */
+    public synchronized void useTenant(Tenant tenant) {
+
+        String id = tenant.isDefault() ? null : tenant.getId();
+        if (id == null ? tenantId != null : !id.equals(tenantId)) {
+            logger.debug("Flow bound to tenant {}", tenant.getId());
+            resetFields();
+            tenantId = id;
+        }
+
+    }
+
     public String getAccessToken() {
+        await(tokensFuture);
         return accessToken;
     }
 
     public String getTokensReponseAsJson() {
-        return tokensReponseAsJson;
+        await(tokensFuture);
+        return Json.pretty(tokensResponse);
     }
 
     public String getIdTokenAsJson() {
-        return idTokenAsJson;
+        await(tokensFuture);
+        return Json.pretty(idTokenClaims);
     }
 
     public String getUserInfoReponseAsJson() {
-        return userInfoReponseAsJson;
+        await(userInfoFuture);
+        return Json.pretty(userInfoResponse);
+    }
+
+    /**
+     * @return Tokens response as compact JSON (UTF-8) or null if not available
+     */
+    public byte[] getTokensResponse() {
+        await(tokensFuture);
+        return tokensResponse;
+    }
+
+    /**
+     * @return ID Token claims as compact JSON (UTF-8) or null if not available
+     */
+    public byte[] getIdTokenClaims() {
+        await(tokensFuture);
+        return idTokenClaims;
+    }
+
+    /**
+     * @return User info response as compact JSON (UTF-8) or null if not available
+     */
+    public byte[] getUserInfoResponse() {
+        await(userInfoFuture);
+        return userInfoResponse;
+    }
+
+    /**
+     * @return The call that obtains the tokens response and ID Token claims, or null if not started. Callers that must
+     * not block can wait for it to complete before calling their getters
+     */
+    public CompletableFuture<?> getTokensFuture() {
+        return tokensFuture;
+    }
+
+    /**
+     * Starts obtaining the user info response if it is not available and the access token is
+     * @return The call that obtains the user info response, or null if there is no access token
+     */
+    public synchronized CompletableFuture<?> prepareUserInfo() {
+
+        if (userInfoResponse == null && accessToken != null) {
+            //State may have been restored on a node that did not retrieve the user info, or a former attempt failed
+            startUserInfo();
+        }
+        return userInfoFuture;
+
     }
 
     public String getLogoutUrl() {
+        await(logoutUrlFuture);
         return logoutUrl;
     }
 
@@ -209,6 +418,88 @@ public class FlowManager implements Serializable {
         this.state = state;
     }
 
+    /**
+     * Tells whether pages of the flow must be rendered without JSF view state, so postbacks can be handled by any node.
+     * This only happens in stateless mode (see {@link StatelessFlowFilter}), since view state protects forms from CSRF.
+     */
+    public boolean isStateless() {
+        return StatelessFlowFilter.ENABLED;
+    }
+
+    /**
+     * Exports the state (see {@link #exportState()}) once the oxd calls whose results are part of it and cannot be
+     * requested again are over, i.e. the token exchange (authorization codes are single-use). No thread is blocked
+     * meanwhile
+     * @return A future completed with the state bytes
+     */
+    public synchronized CompletableFuture<byte[]> exportWhenReady() {
+
+        if (tokensFuture == null || tokensFuture.isDone()) {
+            return CompletableFuture.completedFuture(exportState());
+        }
+        //Completes after the tokens were stored, see retrieveTokens
+        return tokensFuture.handle((result, e) -> exportState());
+
+    }
+
+    /**
+     * Serializes the essential state of the flow (stage, authorization request and response parameters, and tokens) in a
+     * compact binary form. JSON payloads shown in the UI are not included: token payloads are rebuilt from the tokens
+     * upon import, and the rest is requested again. See {@link #exportWhenReady()} to wait for a pending token exchange.
+     * @return State bytes that can be passed to {@link #importState(byte[], long)}, possibly in a different node
+     */
+    public synchronized byte[] exportState() {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(STATE_FORMAT);
+            writeState(out);
+            return bytes.toByteArray();
+        }
+        catch (IOException e){
+            //Not expected when writing to memory
+            throw new IllegalStateException(e);
+        }
+
+    }
+
+    /**
+     * Replaces the state of the flow with one previously produced by {@link #exportState()}. Nothing is done if the
+     * state passed was issued at, or before, the time of the state the current one derives from, e.g. when the same
+     * state is passed again while processing a request dispatched anew. Times issued by different nodes are compared, so
+     * their clocks must be in sync
+     * @param data     State bytes
+     * @param issuedAt Time (epoch millis) at which the state was exported
+     * @return True if state was replaced, false otherwise
+     */
+    public synchronized boolean importState(byte[] data, long issuedAt) {
+
+        if (issuedAt <= syncedAt) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readByte() != STATE_FORMAT) {
+                return false;
+            }
+            FlowManager restored = new FlowManager();
+            restored.readState(in);
+
+            //The flow keeps going under the id it was given where it started, no new one is minted
+            clearFields();
+            copyState(restored);
+            syncedAt = issuedAt;
+            return true;
+        }
+        catch (IOException | RuntimeException e){
+            logger.warn("Flow state could not be restored: {}", e.toString());
+            return false;
+        }
+
+    }
+
     /**
      * Determines if the current stage of the flow is contained in the list of stages passed as parameter
      * @param strStage A comma-separated list of stage names
@@ -218,6 +509,386 @@ public class FlowManager implements Serializable {
         return Stream.of(strStage.split(".\\s+")).anyMatch(str -> stage.toString().equals(str));
     }
 
+    private synchronized CompletableFuture<String> startAuthorizationUrl() {
+
+        if (mustStart(authzUrlFuture, authzUrl)) {
+            authzUrlFuture = oxdService.getAuthzUrlAsync(getTenant()).thenApply(url -> {
+                synchronized (this) {
+                    authzUrl = url;
+                }
+                return url;
+            });
+        }
+        return authzUrlFuture;
+
+    }
+
+    private synchronized void startUserInfo() {
+
+        if (mustStart(userInfoFuture, userInfoResponse)) {
+            CompletableFuture<Void> tokenReady = refreshToken != null && accessTokenExpiresAt > 0
+                    && accessTokenExpiresAt <= System.currentTimeMillis() ? startRefresh() : CompletableFuture.completedFuture(null);
+
+            userInfoFuture = tokenReady.thenCompose(v -> requestUserInfo()).handle((response, e) -> {
+                if (e == null) {
+                    onUserInfo(response);
+                } else {
+                    logger.error(e.getMessage(), e);
+                }
+                return null;
+            });
+        }
+
+    }
+
+    /**
+     * Calls the Get User Info API operation with the current access token. Such token is read holding the monitor,
+     * since a refresh may have just replaced it, but the call is issued without holding it
+     */
+    private CompletableFuture<JsonNode> requestUserInfo() {
+
+        String token;
+        long expiresAt;
+        synchronized (this) {
+            token = accessToken;
+            expiresAt = accessTokenExpiresAt;
+        }
+        return oxdService.getUserInfoAsync(getTenant(), token, expiresAt);
+
+    }
+
+    private synchronized void startLogoutUrl() {
+
+        if (mustStart(logoutUrlFuture, logoutUrl)) {
+            logoutUrlFuture = oxdService.getLogoutUrlAsync(getTenant(), idToken).handle((url, e) -> {
+                if (e == null) {
+                    synchronized (this) {
+                        logoutUrl = url;
+                    }
+                } else {
+                    logger.error(e.getMessage(), e);
+                }
+                return null;
+            });
+        }
+
+    }
+
+    /**
+     * Tells whether an oxd call has to be issued: it was never started, or it is over without having produced a result
+     * (e.g. it failed or was refused by its circuit breaker), so that reloading the page tries again
+     */
+    private static boolean mustStart(CompletableFuture<?> future, Object result) {
+        return future == null || (future.isDone() && result == null);
+    }
+
+    /**
+     * Stores the result of the token exchange. It runs in a thread of the oxd executor: the ID Token is verified without
+     * holding the monitor, and fields are published holding it
+     */
+    private void onTokens(GetTokensByCodeResponse2 response) {
+
+        try {
+            byte[] claims;
+            if (VERIFY_ID_TOKEN) {
+                String nonce;
+                synchronized (this) {
+                    nonce = queryParam(authzUrl, "nonce");
+                }
+                claims = Json.toBytes(oxdService.verifyIdToken(getTenant(), response.getIdToken(), nonce));
+            } else {
+                claims = Json.toBytes(response.getIdTokenClaims());
+            }
+            response.setIdTokenClaims(null);
+            byte[] payload = Json.toBytes(response);
+            long expiresAt = response.getExpiresIn() > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.getExpiresIn()) : -1;
+
+            synchronized (this) {
+                idTokenClaims = claims;
+                tokensResponse = payload;
+                accessToken = response.getAccessToken();
+                accessTokenExpiresAt = expiresAt;
+                tokensExpiresIn = response.getExpiresIn();
+                refreshToken = response.getRefreshToken();
+                idToken = response.getIdToken();
+                scheduleRefresh();
+            }
+        }
+        catch (Exception e){
+            logger.error(e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Schedules the background refresh of the current access token, replacing any refresh scheduled before
+     */
+    private synchronized void scheduleRefresh() {
+
+        if (refreshHandle != null) {
+            refreshHandle.cancel();
+            refreshHandle = null;
+        }
+        //In stateless mode the instance only lives for a request
+        if (TokenRefresher.ENABLED && !StatelessFlowFilter.ENABLED && refreshToken != null && accessTokenExpiresAt > 0) {
+            refreshHandle = oxdService.getTokenRefresher().schedule(accessTokenExpiresAt, () -> {
+                ThreadContext.put(FLOW_ID, flowId);
+                try {
+                    startRefresh();
+                } finally {
+                    ThreadContext.remove(FLOW_ID);
+                }
+            });
+        }
+
+    }
+
+    /**
+     * Starts (if not already in progress) obtaining a new access token with the current refresh token
+     */
+    private synchronized CompletableFuture<Void> startRefresh() {
+
+        if (refreshFuture == null || refreshFuture.isDone()) {
+            String token = refreshToken;
+            refreshFuture = oxdService.refreshAccessTokenAsync(getTenant(), token).handle((response, e) -> {
+                if (e == null) {
+                    onRefresh(token, response);
+                } else {
+                    logger.warn("Access token could not be refreshed: {}", e.getMessage());
+                }
+                return null;
+            });
+        }
+        return refreshFuture;
+
+    }
+
+    private synchronized void onRefresh(String usedToken, GetClientTokenResponse response) {
+
+        if (usedToken == null || !usedToken.equals(refreshToken)) {
+            //The flow was reset or got other tokens meanwhile
+            return;
+        }
+        accessToken = response.getAccessToken();
+        accessTokenExpiresAt = response.getExpiresIn() > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.getExpiresIn()) : -1;
+        if (response.getRefreshToken() != null) {
+            //The OP rotates refresh tokens
+            refreshToken = response.getRefreshToken();
+        }
+        logger.debug("Access token refreshed");
+        scheduleRefresh();
+
+    }
+
+    private void onUserInfo(JsonNode response) {
+
+        try {
+            byte[] payload = Json.toBytes(response);
+            synchronized (this) {
+                userInfoResponse = payload;
+            }
+        }
+        catch (Exception e){
+            logger.error(e.getMessage(), e);
+        }
+
+    }
+
+    private static String queryParam(String url, String name) throws UnsupportedEncodingException {
+
+        int query = url == null ? -1 : url.indexOf('?');
+        if (query >= 0) {
+            for (String pair : url.substring(query + 1).split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                    return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+                }
+            }
+        }
+        return null;
+
+    }
+
+    /**
+     * Switches to another stage, measuring the time spent in the current one
+     */
+    private synchronized void moveTo(Stage next) {
+
+        long now = System.nanoTime();
+        if (stageEnteredAt != 0) {
+            Metrics.histogram("flow_stage_duration_seconds", "Time users spend in every stage of the sample flow",
+                    "stage", stage.name()).record(now - stageEnteredAt);
+            if (trace != null) {
+                trace.record("stage", stage.name(), stageEnteredAt, now);
+            }
+        }
+        Metrics.counter("flow_stage_transitions_total", "Transitions between stages of the sample flow",
+                "from", stage.name(), "to", next.name()).increment();
+
+        stage = next;
+        stageEnteredAt = now;
+
+    }
+
+    /**
+     * Writes the fields that make up the state of the flow, excluding JSON payloads
+     */
+    private void writeState(DataOutput out) throws IOException {
+
+        out.writeByte(stage.ordinal());
+        CompactIO.writeString(out, tenantId);
+        CompactIO.writeString(out, flowId);
+        CompactIO.writeString(out, authzUrl);
+        CompactIO.writeString(out, code);
+        CompactIO.writeString(out, state);
+        CompactIO.writeString(out, accessToken);
+        out.writeLong(accessTokenExpiresAt);
+        out.writeInt(tokensExpiresIn);
+        CompactIO.writeString(out, refreshToken);
+        CompactIO.writeString(out, idToken);
+        CompactIO.writeString(out, logoutUrl);
+
+    }
+
+    private void readState(DataInput in) throws IOException {
+
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Stage.values().length) {
+            throw new IOException("Unknown stage " + ordinal);
+        }
+        stage = Stage.values()[ordinal];
+        tenantId = CompactIO.readString(in);
+        flowId = CompactIO.readString(in);
+        authzUrl = CompactIO.readString(in);
+        code = CompactIO.readString(in);
+        state = CompactIO.readString(in);
+        accessToken = CompactIO.readString(in);
+        accessTokenExpiresAt = in.readLong();
+        tokensExpiresIn = in.readInt();
+        refreshToken = CompactIO.readString(in);
+        idToken = CompactIO.readString(in);
+        logoutUrl = CompactIO.readString(in);
+
+    }
+
+    private void copyState(FlowManager other) {
+
+        useFlowId(other.flowId, "replaced");
+        stage = other.stage;
+        tenantId = other.tenantId;
+        authzUrl = other.authzUrl;
+        authzUrlFuture = authzUrl == null ? null : CompletableFuture.completedFuture(authzUrl);
+        code = other.code;
+        state = other.state;
+        accessToken = other.accessToken;
+        accessTokenExpiresAt = other.accessTokenExpiresAt;
+        tokensExpiresIn = other.tokensExpiresIn;
+        refreshToken = other.refreshToken;
+        idToken = other.idToken;
+        logoutUrl = other.logoutUrl;
+        rebuildTokenPayloads();
+        scheduleRefresh();
+
+    }
+
+    /**
+     * Rebuilds the token payloads shown in the UI from the tokens held. ID Token claims are taken from the token as is:
+     * it comes from state this app sealed, so it was verified already if verification is enabled
+     */
+    private void rebuildTokenPayloads() {
+
+        if (accessToken == null) {
+            return;
+        }
+        try {
+            GetTokensByCodeResponse2 response = new GetTokensByCodeResponse2();
+            response.setAccessToken(accessToken);
+            response.setExpiresIn(tokensExpiresIn);
+            response.setIdToken(idToken);
+            response.setRefreshToken(refreshToken);
+            tokensResponse = Json.toBytes(response);
+
+            int firstDot = idToken == null ? -1 : idToken.indexOf('.');
+            int secondDot = firstDot < 0 ? -1 : idToken.indexOf('.', firstDot + 1);
+            if (secondDot > 0) {
+                byte[] payload = Base64.getUrlDecoder().decode(idToken.substring(firstDot + 1, secondDot));
+                idTokenClaims = Json.toBytes(Json.MAPPER.readTree(payload));
+            }
+        }
+        catch (IOException | IllegalArgumentException e){
+            logger.warn("Token payloads could not be rebuilt: {}", e.toString());
+        }
+
+    }
+
+    /**
+     * Writes the injected references in the default way, followed by a versioned compact form of the flow state:
+     * stage ordinal, length-prefixed UTF-8 strings, and the JSON payloads as length-prefixed bytes. Pending oxd calls
+     * are not written; pages of the restored flow will request again whatever data is missing
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+
+        out.defaultWriteObject();
+        out.writeByte(SERIAL_FORMAT);
+        out.writeLong(syncedAt);
+        writeState(out);
+        CompactIO.writeBytes(out, tokensResponse);
+        CompactIO.writeBytes(out, idTokenClaims);
+        CompactIO.writeBytes(out, userInfoResponse);
+
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+        in.defaultReadObject();
+        logger = LogManager.getLogger(getClass());
+
+        byte format = in.readByte();
+        if (format != SERIAL_FORMAT) {
+            throw new InvalidObjectException("Unsupported serialized form version " + format);
+        }
+        syncedAt = in.readLong();
+        readState(in);
+        tokensResponse = CompactIO.readBytes(in);
+        idTokenClaims = CompactIO.readBytes(in);
+        userInfoResponse = CompactIO.readBytes(in);
+
+        if (authzUrl != null) {
+            authzUrlFuture = CompletableFuture.completedFuture(authzUrl);
+        }
+        if (tokensResponse != null) {
+            tokensFuture = CompletableFuture.completedFuture(null);
+        }
+        if (userInfoResponse != null) {
+            userInfoFuture = CompletableFuture.completedFuture(null);
+        }
+        if (logoutUrl != null) {
+            logoutUrlFuture = CompletableFuture.completedFuture(null);
+        }
+        //Refreshes scheduled for the flow were lost along with the node or session that held it
+        scheduleRefresh();
+
+    }
+
+    /**
+     * Waits for an oxd call to finish. Errors are already handled (logged) by the future itself
+     */
+    private void await(CompletableFuture<?> future) {
+
+        if (future != null) {
+            try {
+                future.get(AWAIT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException | TimeoutException e) {
+                logger.error("oxd call did not complete: {}", e.toString());
+            }
+        }
+
+    }
+
     private void redirectExternal(String url) throws IOException{
 
         ExternalContext externalContext=FacesContext.getCurrentInstance().getExternalContext();
@@ -228,6 +899,7 @@ public class FlowManager implements Serializable {
 
         FacesContext facesContext=FacesContext.getCurrentInstance();
         String url= OxdConfig.URL_PREFIX + "/" + stage.getUrl();
+        traceRedirect(stage.getUrl());
         url=facesContext.getApplication().getViewHandler().getRedirectURL(facesContext, url, Collections.emptyMap(), false);
         redirectExternal(url);
 
@@ -236,26 +908,105 @@ public class FlowManager implements Serializable {
     @PostConstruct
     private void init(){
 
-        mapper=new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-        mapper.disable(SerializationFeature.WRITE_NULL_MAP_VALUES);
-
         resetFields();
 
     }
 
-    private void resetFields(){
+    /**
+     * Called when the session ends, or the request in stateless mode: no more refreshes are needed
+     */
+    @PreDestroy
+    private synchronized void destroy() {
+
+        //In stateless mode the flow goes on in the next request, possibly in another node
+        endTrace(StatelessFlowFilter.ENABLED ? "exported" : "ended");
+        if (refreshHandle != null) {
+            refreshHandle.cancel();
+            refreshHandle = null;
+        }
+
+    }
+
+    private synchronized void resetFields(){
+
+        useFlowId(String.format("%016x", ThreadLocalRandom.current().nextLong()), "restarted");
+        clearFields();
+
+    }
+
+    /**
+     * Brings the flow back to its first stage, keeping its correlation id
+     */
+    private void clearFields(){
 
         stage= Stage.PRE_AUTHZ_URL;
+        stageEnteredAt=System.nanoTime();
+        authzUrlFuture=null;
+        tokensFuture=null;
+        userInfoFuture=null;
+        logoutUrlFuture=null;
+        refreshFuture=null;
+        if (refreshHandle != null) {
+            refreshHandle.cancel();
+            refreshHandle = null;
+        }
         authzUrl=null;
         code=null;
         state=null;
-        tokensReponseAsJson=null;
+        tokensResponse=null;
         accessToken=null;
+        accessTokenExpiresAt=-1;
+        refreshToken=null;
         idToken=null;
-        idTokenAsJson=null;
-        userInfoReponseAsJson=null;
+        idTokenClaims=null;
+        userInfoResponse=null;
         logoutUrl=null;
+
+    }
+
+    /**
+     * Sets the correlation id of the flow. If the current thread is working on behalf of this flow, its context is
+     * updated too, so the lines that follow carry the new id. The trace of the former flow, if any, is finished and
+     * the new flow is traced if sampled
+     * @param outcome How the former flow ended
+     */
+    private void useFlowId(String id, String outcome) {
+
+        if (id.equals(flowId)) {
+            return;
+        }
+        endTrace(outcome);
+        if (flowId != null && flowId.equals(ThreadContext.get(FLOW_ID))) {
+            ThreadContext.put(FLOW_ID, id);
+        }
+        flowId = id;
+        trace = flowTracer.start(id);
+
+    }
+
+    /**
+     * Finishes the trace of the current flow (if traced), closing the span of the stage it is in
+     */
+    private void endTrace(String outcome) {
+
+        if (trace != null) {
+            //A flow with no spans at all was never used, and its trace is discarded
+            if (stageEnteredAt != 0 && trace.getSpanCount() > 0) {
+                trace.record("stage", stage.name(), stageEnteredAt, System.nanoTime());
+            }
+            flowTracer.finish(trace, tenantId == null ? Tenant.DEFAULT_ID : tenantId, outcome);
+            trace = null;
+        }
+
+    }
+
+    private void traceRedirect(String target) {
+
+        if (trace != null) {
+            long now = System.nanoTime();
+            trace.record("redirect", target, now, now);
+        }
+
     }
 
 }
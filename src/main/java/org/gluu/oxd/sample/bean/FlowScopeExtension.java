@@ -0,0 +1,35 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.gluu.oxd.sample.filter.StatelessFlowFilter;
+
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.SessionScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.Extension;
+import javax.enterprise.inject.spi.ProcessAnnotatedType;
+
+/**
+ * A CDI extension that makes {@link FlowManager} request scoped in stateless mode (see {@link StatelessFlowFilter}), so
+ * that no HTTP session is created for the flow: its state is imported from the flow cookie at the start of every
+ * request instead.
+ *
+ * @author jgomer
+ */
+public class FlowScopeExtension implements Extension {
+
+    void scopeFlowManager(@Observes ProcessAnnotatedType<FlowManager> event) {
+
+        if (StatelessFlowFilter.ENABLED) {
+            event.configureAnnotatedType()
+                    .remove(annotation -> annotation.annotationType().equals(SessionScoped.class))
+                    .add(RequestScoped.Literal.INSTANCE);
+        }
+
+    }
+
+}
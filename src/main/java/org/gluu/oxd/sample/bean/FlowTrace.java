@@ -0,0 +1,184 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The timeline of a login flow: stages the flow went through, calls it issued, and redirects it made. Every entry (a
+ * {@link Span}) carries its start and end as {@link System#nanoTime()} readings, and is exported relative to the time
+ * the trace was started.
+ * <p>Spans are appended without locking, from request threads and from the threads running the oxd calls of the flow.
+ * A trace holds up to {@link #MAX_SPANS} spans; those beyond are only counted.</p>
+ *
+ * @author jgomer
+ */
+public final class FlowTrace {
+
+    public static final int MAX_SPANS = 256;
+
+    private final String flowId;
+    private final long startedAt;
+    private final long origin;
+
+    private final AtomicReferenceArray<Span> spans = new AtomicReferenceArray<>(MAX_SPANS);
+    private final AtomicInteger size = new AtomicInteger();
+
+    //Set when the trace is finished (see FlowTracer#finish)
+    private volatile long end;
+    private volatile String tenant;
+    private volatile String outcome;
+
+    FlowTrace(String flowId) {
+
+        this.flowId = flowId;
+        startedAt = System.currentTimeMillis();
+        origin = System.nanoTime();
+
+    }
+
+    /**
+     * Starts a span. It is part of the trace right away, although it only gets an end when {@link Span#end(Throwable)}
+     * is called.
+     * @param kind Kind of span: <code>stage</code>, <code>call</code>, <code>oxd</code>, or <code>redirect</code>
+     * @param name What the span is about, e.g. the name of a stage or operation
+     */
+    public Span begin(String kind, String name) {
+
+        Span span = new Span(kind, name, System.nanoTime());
+        add(span);
+        return span;
+
+    }
+
+    /**
+     * Adds a span whose start and end are known already. Instantaneous events (e.g. redirects) have the same start and end.
+     */
+    public void record(String kind, String name, long start, long end) {
+
+        Span span = new Span(kind, name, start);
+        span.end = end;
+        add(span);
+
+    }
+
+    public String getFlowId() {
+        return flowId;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return Number of spans started, including those that did not fit in the trace
+     */
+    public int getSpanCount() {
+        return size.get();
+    }
+
+    void finish(String tenant, String outcome) {
+
+        this.tenant = tenant;
+        this.outcome = outcome;
+        end = System.nanoTime();
+
+    }
+
+    /**
+     * Writes this trace as a JSON object:
+     * <code>{"flowId", "tenant", "outcome", "startedAt" (epoch millis), "duration", "droppedSpans", "spans": [{"kind",
+     * "name", "start", "end", "error"}]}</code>, where durations, starts and ends are nanoseconds since the start of
+     * the trace. Spans not ended have a null end, and only failed ones have an error.
+     */
+    void writeJson(JsonGenerator generator) throws IOException {
+
+        int count = size.get();
+        generator.writeStartObject();
+        generator.writeStringField("flowId", flowId);
+        generator.writeStringField("tenant", tenant);
+        generator.writeStringField("outcome", outcome);
+        generator.writeNumberField("startedAt", startedAt);
+        generator.writeNumberField("duration", (end == 0 ? System.nanoTime() : end) - origin);
+        generator.writeNumberField("droppedSpans", Math.max(count - MAX_SPANS, 0));
+
+        generator.writeArrayFieldStart("spans");
+        for (int i = 0; i < Math.min(count, MAX_SPANS); i++) {
+            Span span = spans.get(i);
+            if (span == null) {
+                //Still being added
+                continue;
+            }
+            generator.writeStartObject();
+            generator.writeStringField("kind", span.kind);
+            generator.writeStringField("name", span.name);
+            generator.writeNumberField("start", span.start - origin);
+            if (span.end == 0) {
+                generator.writeNullField("end");
+            } else {
+                generator.writeNumberField("end", span.end - origin);
+            }
+            if (span.error != null) {
+                generator.writeStringField("error", span.error);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+
+    }
+
+    private void add(Span span) {
+
+        int i = size.getAndIncrement();
+        if (i < MAX_SPANS) {
+            spans.set(i, span);
+        }
+
+    }
+
+    /**
+     * An entry of the timeline.
+     */
+    public static final class Span {
+
+        private final String kind;
+        private final String name;
+        private final long start;
+
+        private volatile long end;
+        private volatile String error;
+
+        private Span(String kind, String name, long start) {
+            this.kind = kind;
+            this.name = name;
+            this.start = start;
+        }
+
+        /**
+         * Ends the span.
+         * @param error The failure of what the span is about, or null if it succeeded
+         */
+        public void end(Throwable error) {
+
+            if (error instanceof CompletionException && error.getCause() != null) {
+                error = error.getCause();
+            }
+            if (error != null) {
+                this.error = error.getClass().getSimpleName();
+            }
+            end = System.nanoTime();
+
+        }
+
+    }
+
+}
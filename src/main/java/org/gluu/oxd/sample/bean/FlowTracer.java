@@ -0,0 +1,246 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the {@link FlowTrace timelines} of sampled login flows. A fraction (<code>oxd.sample.trace.sample-rate</code>)
+ * of flows is traced; the decision derives from the flow id, so every node of a cluster makes the same one.
+ * <p>Traces in progress are looked up by flow id, which travels in the logging {@link ThreadContext} (see
+ * {@link FlowManager#FLOW_ID}), so code running on behalf of a flow in any thread can add spans to its trace. For flows
+ * not sampled, such lookup is all the overhead incurred.</p>
+ * <p>Finished traces go to a ring buffer holding the latest <code>oxd.sample.trace.buffer-size</code> ones, and are
+ * appended as JSON lines to <code>oxd.sample.trace.file</code> by a background thread. Traces that find the queue of
+ * such thread full are not written to the file. The exporter is stopped when the application shuts down.</p>
+ *
+ * @author jgomer
+ */
+@ApplicationScoped
+public class FlowTracer {
+
+    private static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("oxd.sample.trace.sample-rate", "0.1"));
+    private static final int BUFFER_SIZE = Math.max(Integer.getInteger("oxd.sample.trace.buffer-size", 256), 1);
+    private static final int MAX_ACTIVE = Integer.getInteger("oxd.sample.trace.max-active", 10000);
+    private static final String FILE = System.getProperty("oxd.sample.trace.file",
+            Paths.get(System.getProperty("java.io.tmpdir"), "oxd-java-sample-traces.jsonl").toString());
+
+    private static final int EXPORT_QUEUE_SIZE = 1024;
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private final ConcurrentMap<String, FlowTrace> active = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<FlowTrace> recent = new AtomicReferenceArray<>(BUFFER_SIZE);
+    private final AtomicLong cursor = new AtomicLong();
+
+    private final BlockingQueue<FlowTrace> exports = new ArrayBlockingQueue<>(EXPORT_QUEUE_SIZE);
+    private final LongAdder finished = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean exporting = !FILE.isEmpty();
+
+    //Started upon the first trace finished
+    private volatile Thread exporter;
+
+    /**
+     * Starts the trace of a flow if the flow is sampled.
+     * @return The trace, or null if the flow is not traced
+     */
+    FlowTrace start(String flowId) {
+
+        if (!isSampled(flowId) || active.size() >= MAX_ACTIVE) {
+            return null;
+        }
+        FlowTrace trace = new FlowTrace(flowId);
+        //A flow whose state was copied to another session of this node keeps a single trace
+        return active.putIfAbsent(flowId, trace) == null ? trace : null;
+
+    }
+
+    /**
+     * Returns the trace in progress of the flow whose id is in the {@link ThreadContext} of the current thread.
+     * @return The trace, or null if the thread is not working on behalf of a traced flow
+     */
+    FlowTrace current() {
+        return active.isEmpty() ? null : get(ThreadContext.get(FlowManager.FLOW_ID));
+    }
+
+    /**
+     * Returns the trace in progress of a flow.
+     * @return The trace, or null if the flow is not traced
+     */
+    FlowTrace get(String flowId) {
+        return flowId == null ? null : active.get(flowId);
+    }
+
+    /**
+     * Finishes a trace, making it available through {@link #getRecent()} and queueing it for export. Traces with no
+     * spans (e.g. of flows that never got to be used) are discarded.
+     * @param tenant  Id of the tenant the flow was bound to
+     * @param outcome How the flow ended
+     */
+    void finish(FlowTrace trace, String tenant, String outcome) {
+
+        if (!active.remove(trace.getFlowId(), trace) || trace.getSpanCount() == 0) {
+            return;
+        }
+        trace.finish(tenant, outcome);
+        finished.increment();
+        recent.set((int) (cursor.getAndIncrement() % BUFFER_SIZE), trace);
+
+        if (exporting) {
+            if (exporter == null) {
+                startExporter();
+            }
+            if (!exports.offer(trace)) {
+                dropped.increment();
+            }
+        }
+
+    }
+
+    /**
+     * @return The latest traces finished, newest first
+     */
+    public List<FlowTrace> getRecent() {
+
+        long last = cursor.get();
+        List<FlowTrace> traces = new ArrayList<>();
+        for (long i = last - 1; i >= 0 && i >= last - BUFFER_SIZE; i--) {
+            FlowTrace trace = recent.get((int) (i % BUFFER_SIZE));
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+        return traces;
+
+    }
+
+    /**
+     * Writes the latest traces finished as JSON lines (see {@link FlowTrace#writeJson(JsonGenerator)}), newest first.
+     */
+    public void writeRecent(OutputStream out) throws IOException {
+
+        try (JsonGenerator generator = Json.MAPPER.getFactory().createGenerator(out)) {
+            //The stream belongs to the caller
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            for (FlowTrace trace : getRecent()) {
+                trace.writeJson(generator);
+                generator.writeRaw('\n');
+            }
+        }
+
+    }
+
+    public int getActive() {
+        return active.size();
+    }
+
+    public long getFinished() {
+        return finished.sum();
+    }
+
+    /**
+     * @return Number of traces not written to the trace file because the exporter could not keep up
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the exporter once it has written the traces queued so far
+     */
+    @PreDestroy
+    public void close() {
+
+        Thread thread;
+        synchronized (this) {
+            exporting = false;
+            thread = exporter;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    static boolean isSampled(String flowId) {
+        return SAMPLE_RATE >= 1 || (SAMPLE_RATE > 0 && (flowId.hashCode() & Integer.MAX_VALUE) < SAMPLE_RATE * Integer.MAX_VALUE);
+    }
+
+    private synchronized void startExporter() {
+
+        if (exporter == null && exporting) {
+            exporter = new Thread(this::export, "flow-trace-exporter");
+            exporter.setDaemon(true);
+            exporter.start();
+        }
+
+    }
+
+    private void export() {
+
+        Path file = Paths.get(FILE);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             JsonGenerator generator = Json.MAPPER.getFactory().createGenerator(writer)) {
+
+            logger.info("Traces of sampled flows will be appended to {}", file);
+            generator.setRootValueSeparator(null);
+            boolean running = true;
+            while (running) {
+                FlowTrace trace;
+                try {
+                    trace = exports.take();
+                } catch (InterruptedException e) {
+                    //Closing: write whatever is left
+                    running = false;
+                    trace = exports.poll();
+                }
+                for (; trace != null; trace = exports.poll()) {
+                    trace.writeJson(generator);
+                    generator.writeRaw('\n');
+                }
+                generator.flush();
+            }
+        } catch (IOException e) {
+            exporting = false;
+            logger.error("Traces cannot be written to {}: {}", file, e.toString());
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * JSON facilities shared by the whole application. Payloads kept in memory (e.g. in {@link FlowManager}) are stored as
+ * compact UTF-8 bytes and only pretty-printed when displayed.
+ *
+ * @author jgomer
+ */
+public final class Json {
+
+    /**
+     * A pre-configured, thread-safe mapper. Do not alter its configuration.
+     */
+    public static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.WRITE_NULL_MAP_VALUES);
+
+    private static final ObjectWriter COMPACT_WRITER = MAPPER.writer();
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private Json() {
+    }
+
+    /**
+     * Serializes an object to compact UTF-8 JSON.
+     */
+    public static byte[] toBytes(Object value) throws IOException {
+        return value == null ? null : COMPACT_WRITER.writeValueAsBytes(value);
+    }
+
+    /**
+     * Renders a compact JSON document in indented form.
+     *
+     * @param json UTF-8 bytes of a JSON document (can be null)
+     * @return The indented document or null if the parameter was null
+     */
+    public static String pretty(byte[] json) {
+
+        if (json == null) {
+            return null;
+        }
+        try {
+            StringWriter writer = new StringWriter(json.length + json.length / 2);
+            writePretty(json, writer);
+            return writer.toString();
+        } catch (IOException e) {
+            //The payload was generated by this app, this should not happen
+            throw new IllegalStateException(e);
+        }
+
+    }
+
+    /**
+     * Streams a compact JSON document in indented form, token by token, with no intermediate tree or String.
+     */
+    public static void writePretty(byte[] json, OutputStream out) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            copy(json, generator);
+        }
+    }
+
+    /**
+     * Streams a compact JSON document in indented form, token by token, with no intermediate tree or String.
+     */
+    public static void writePretty(byte[] json, Writer out) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            copy(json, generator);
+        }
+    }
+
+    private static void copy(byte[] json, JsonGenerator generator) throws IOException {
+
+        generator.useDefaultPrettyPrinter();
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            while (parser.nextToken() != null) {
+                generator.copyCurrentEvent(parser);
+            }
+        }
+
+    }
+
+}
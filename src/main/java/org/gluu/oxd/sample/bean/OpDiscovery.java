@@ -0,0 +1,138 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the discovery metadata of OPs in memory, indexed by OP location, so tenants on different OPs do not evict each
+ * other. Metadata is fetched once and refreshed in the background when it gets older than the configured TTL
+ * (<code>oxd.sample.discovery.ttl</code> seconds). Callers keep receiving the previous copy while a refresh is in
+ * progress, and concurrent callers with no usable copy of the same OP's metadata share a single fetch.
+ *
+ * @author jgomer
+ */
+final class OpDiscovery {
+
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("oxd.sample.discovery.ttl", 3600L));
+
+    /**
+     * Retrieves the discovery metadata of an OP.
+     */
+    interface Fetcher {
+        OpMetadata fetch(Tenant tenant, String opHost) throws Exception;
+    }
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    //Runs background refreshes
+    private final Executor executor;
+    private final Fetcher fetcher;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    OpDiscovery(Executor executor, Fetcher fetcher) {
+        this.executor = executor;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Returns the metadata of the OP given.
+     *
+     * @param tenant A tenant using the OP, whose network client is employed if metadata has to be fetched
+     * @param opHost OP location
+     * @return An {@link OpMetadata} instance
+     * @throws Exception If no metadata was cached for this OP and it could not be fetched
+     */
+    OpMetadata get(Tenant tenant, String opHost) throws Exception {
+
+        Entry current = entries.get(opHost);
+        if (current != null) {
+            if (System.nanoTime() - current.fetchedAt > TTL_NANOS) {
+                refreshInBackground(tenant, opHost);
+            }
+            return current.metadata;
+        }
+        try {
+            return fetch(tenant, opHost).get().metadata;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+
+    }
+
+    /**
+     * Discards cached metadata of an OP so that it is fetched again upon next usage.
+     */
+    void invalidate(String opHost) {
+        entries.remove(opHost);
+    }
+
+    private void refreshInBackground(Tenant tenant, String opHost) {
+
+        if (refreshing.add(opHost)) {
+            try {
+                executor.execute(() -> fetch(tenant, opHost).whenComplete((fresh, e) -> {
+                    refreshing.remove(opHost);
+                    if (e != null) {
+                        logger.warn("Discovery metadata of {} could not be refreshed: {}", opHost, e.getMessage());
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                //Application is shutting down, or too many oxd calls are queued: a later call will try again
+                refreshing.remove(opHost);
+            }
+        }
+
+    }
+
+    private CompletableFuture<Entry> fetch(Tenant tenant, String opHost) {
+
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(opHost, mine);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            Entry fresh = new Entry(fetcher.fetch(tenant, opHost), System.nanoTime());
+            logger.debug("Fetched discovery metadata {}", fresh.metadata);
+            entries.put(opHost, fresh);
+            mine.complete(fresh);
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+        } finally {
+            inFlight.remove(opHost, mine);
+        }
+        return mine;
+
+    }
+
+    private static final class Entry {
+
+        private final OpMetadata metadata;
+        private final long fetchedAt;
+
+        private Entry(OpMetadata metadata, long fetchedAt) {
+            this.metadata = metadata;
+            this.fetchedAt = fetchedAt;
+        }
+
+    }
+
+}
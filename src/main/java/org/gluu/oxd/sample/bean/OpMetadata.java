@@ -0,0 +1,60 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The subset of an OpenID Provider discovery document (<code>/.well-known/openid-configuration</code>) this
+ * application makes use of. Instances are immutable.
+ *
+ * @author jgomer
+ */
+public final class OpMetadata {
+
+    private final String opHost;
+    private final String issuer;
+    private final String authorizationEndpoint;
+    private final String endSessionEndpoint;
+    private final String jwksUri;
+
+    OpMetadata(String opHost, JsonNode document) {
+        this.opHost = opHost;
+        issuer = document.path("issuer").asText(null);
+        authorizationEndpoint = document.path("authorization_endpoint").asText(null);
+        endSessionEndpoint = document.path("end_session_endpoint").asText(null);
+        jwksUri = document.path("jwks_uri").asText(null);
+    }
+
+    @Override
+    public String toString() {
+        return "[issuer=" + issuer + ", jwksUri=" + jwksUri + "]";
+    }
+
+    /**
+     * @return The OP host whose discovery document these values were taken from
+     */
+    public String getOpHost() {
+        return opHost;
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public String getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    public String getEndSessionEndpoint() {
+        return endSessionEndpoint;
+    }
+
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+}
@@ -0,0 +1,508 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.client.ClientInterface;
+import org.gluu.oxd.sample.metrics.Metrics;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+
+import javax.ws.rs.ProcessingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A network client to one or more oxd-server instances. The host setting may contain a comma-separated list of
+ * <code>host[:port]</code> entries (the port setting applies to entries with no port); all instances are expected to
+ * share their storage.
+ * <p>Every API call goes to the healthier and faster of two endpoints chosen at random ("power of two choices"), where
+ * the cost of an endpoint is the moving average of its latency times the number of calls it is currently serving.
+ * Endpoints that fail at the network level are taken out of rotation until a periodic health check succeeds. Calls
+ * are retried on a different endpoint when this is safe: idempotent operations always, others only if the connection
+ * could not even be established.</p>
+ * <p>If system property <code>oxd.server.hedging</code> is true, read-only operations not completed within a delay
+ * are also sent to a second endpoint, and the first response wins. Hedged calls run in an executor of their own; when
+ * it has no thread available, the call is issued by the caller as if hedging was off.</p>
+ *
+ * @author jgomer
+ */
+final class OxdBalancer implements AutoCloseable {
+
+    private static final long HEALTH_INTERVAL_SECONDS = Long.getLong("oxd.server.health-interval", 10L);
+    private static final boolean HEDGING = Boolean.getBoolean("oxd.server.hedging");
+    private static final long HEDGE_DELAY_MILLIS = Long.getLong("oxd.server.hedge-delay-ms", -1L);
+
+    //Weight of the newest sample in the moving average of latencies
+    private static final double EWMA_ALPHA = 0.3;
+
+    //Operations that can be safely issued more than once
+    private static final Set<String> IDEMPOTENT = new HashSet<>(Arrays.asList("healthCheck", "getClientToken",
+            "getAuthorizationUrl", "getUserInfo", "getLogoutUri", "getDiscovery"));
+
+    //Operations worth hedging
+    private static final Set<String> HEDGED = new HashSet<>(Arrays.asList("getAuthorizationUrl", "getUserInfo",
+            "getLogoutUri", "getDiscovery"));
+
+    private static final Logger LOGGER = LogManager.getLogger(OxdBalancer.class);
+
+    private final String hosts;
+    private final int port;
+    private final boolean trustAll;
+
+    private final List<Endpoint> endpoints;
+    private final Executor executor;
+    private final ScheduledFuture<?> healthChecks;
+    private final ClientInterface clientInterface;
+    private final FlowTracer tracer;
+
+    //Calls issued through the client interface that have not returned yet
+    private final AtomicInteger callsInProgress = new AtomicInteger();
+
+    private OxdBalancer(String hosts, int port, boolean trustAll, Executor executor, ScheduledExecutorService scheduler,
+                        FlowTracer tracer) {
+
+        this.hosts = hosts;
+        this.port = port;
+        this.trustAll = trustAll;
+        this.executor = executor;
+        this.tracer = tracer;
+
+        endpoints = Collections.unmodifiableList(Stream.of(hosts == null ? new String[] { null } : hosts.trim().split("\\s*,\\s*"))
+                .map(entry -> new Endpoint(entry, port, trustAll)).collect(Collectors.toList()));
+
+        healthChecks = endpoints.size() < 2 ? null : scheduler.scheduleWithFixedDelay(this::checkHealth,
+                HEALTH_INTERVAL_SECONDS, HEALTH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        clientInterface = (ClientInterface) Proxy.newProxyInstance(ClientInterface.class.getClassLoader(),
+                new Class<?>[] { ClientInterface.class }, new Handler());
+
+    }
+
+    /**
+     * Builds a client for the oxd-server locations given.
+     *
+     * @param hosts     A comma-separated list of oxd-server host names, each optionally followed by colon and port
+     * @param port      Port of entries with no port
+     * @param trustAll  Whether any server certificate should be accepted
+     * @param executor  Runs hedged calls and health checks. Callers wait for hedged calls, so it must not be the
+     *                  executor of the oxd calls themselves (see {@link OxdExecutors#newHedgeExecutor()})
+     * @param scheduler Triggers health checks
+     * @param tracer    Receives the spans of calls made on behalf of traced flows
+     * @return A new client instance
+     */
+    static OxdBalancer create(String hosts, int port, boolean trustAll, Executor executor, ScheduledExecutorService scheduler,
+                              FlowTracer tracer) {
+        return new OxdBalancer(hosts, port, trustAll, executor, scheduler, tracer);
+    }
+
+    /**
+     * Determines whether this client was built for the locations and trust settings passed.
+     */
+    boolean matches(String hosts, int port, boolean trustAll) {
+        return this.port == port && this.trustAll == trustAll && (this.hosts == null ? hosts == null : this.hosts.equals(hosts));
+    }
+
+    /**
+     * @return A thread-safe {@link ClientInterface} that balances calls among endpoints
+     */
+    ClientInterface getClientInterface() {
+        return clientInterface;
+    }
+
+    /**
+     * @return A general-purpose JAX-RS client (e.g. to fetch documents from the OP)
+     */
+    ResteasyClient getResteasyClient() {
+        return endpoints.get(0).client.getResteasyClient();
+    }
+
+    /**
+     * @return Number of calls made through the client interface that are still running
+     */
+    int getCallsInProgress() {
+        return callsInProgress.get();
+    }
+
+    @Override
+    public void close() {
+
+        if (healthChecks != null) {
+            healthChecks.cancel(false);
+        }
+        endpoints.forEach(endpoint -> endpoint.client.close());
+
+    }
+
+    @Override
+    public String toString() {
+        return endpoints.stream().map(endpoint -> endpoint.client.toString()).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    private void checkHealth() {
+
+        for (Endpoint endpoint : endpoints) {
+            try {
+                executor.execute(endpoint::checkHealth);
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Health check of {} skipped: {}", endpoint, e.toString());
+            }
+        }
+
+    }
+
+    /**
+     * Chooses the endpoint for the next call among the healthy ones not tried yet
+     *
+     * @return An endpoint, or null if all were tried
+     */
+    private Endpoint pick(Set<Endpoint> tried) {
+
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy && !tried.contains(endpoint)) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            //Better to try an endpoint marked as down than failing right away
+            endpoints.stream().filter(endpoint -> !tried.contains(endpoint)).forEach(candidates::add);
+        }
+
+        switch (candidates.size()) {
+            case 0:
+                return null;
+            case 1:
+                return candidates.get(0);
+            default:
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int i = random.nextInt(candidates.size());
+                int j = random.nextInt(candidates.size() - 1);
+                Endpoint a = candidates.get(i);
+                Endpoint b = candidates.get(j < i ? j : j + 1);
+                return a.cost() <= b.cost() ? a : b;
+        }
+
+    }
+
+    private static boolean isConnectFailure(ProcessingException e) {
+
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException) {
+                return true;
+            }
+        }
+        return false;
+
+    }
+
+    private class Handler implements InvocationHandler {
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return OxdBalancer.this.toString();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+
+            String operation = method.getName();
+            FlowTrace trace = tracer.current();
+            FlowTrace.Span span = trace == null ? null : trace.begin("oxd", operation);
+            long start = System.nanoTime();
+            Throwable error = null;
+            callsInProgress.incrementAndGet();
+            try {
+                return call(method, args);
+            } catch (Throwable e) {
+                error = e;
+                Metrics.counter("oxd_operation_errors_total", "Failed oxd-server operations", "operation", operation).increment();
+                throw e;
+            } finally {
+                callsInProgress.decrementAndGet();
+                if (span != null) {
+                    span.end(error);
+                }
+                Metrics.histogram("oxd_operation_duration_seconds", "Duration of oxd-server operations, including failover and hedging",
+                        "operation", operation).record(System.nanoTime() - start);
+            }
+
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+
+            Set<Endpoint> tried = new HashSet<>();
+            if (HEDGING && endpoints.size() > 1 && HEDGED.contains(method.getName())) {
+                Object result = hedged(method, args, tried);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return withFailover(method, args, tried);
+
+        }
+
+        private Object withFailover(Method method, Object[] args, Set<Endpoint> tried) throws Throwable {
+
+            boolean idempotent = IDEMPOTENT.contains(method.getName());
+            ProcessingException failure = null;
+            Endpoint endpoint;
+
+            while ((endpoint = pick(tried)) != null) {
+                tried.add(endpoint);
+                try {
+                    return endpoint.invoke(method, args);
+                } catch (ProcessingException e) {
+                    if (!idempotent && !isConnectFailure(e)) {
+                        throw e;
+                    }
+                    failure = e;
+                    LOGGER.warn("{} failed on {}: {}", method.getName(), endpoint, e.toString());
+                }
+            }
+            throw failure;
+
+        }
+
+        /**
+         * Sends the call to the best endpoint, and also to the second best if no response arrived after a delay
+         *
+         * @return The first result available, or null if all hedged calls failed (endpoints used are added to tried)
+         */
+        private Object hedged(Method method, Object[] args, Set<Endpoint> tried) throws Throwable {
+
+            Endpoint primary = pick(tried);
+            tried.add(primary);
+
+            Hedge hedge = new Hedge();
+            if (!launch(primary, method, args, hedge)) {
+                //No thread available for hedging: the caller issues the call itself
+                tried.remove(primary);
+                return null;
+            }
+
+            long delay = HEDGE_DELAY_MILLIS >= 0 ? HEDGE_DELAY_MILLIS : Math.max(2 * (long) primary.ewmaMillis, 50);
+            try {
+                return hedge.result.get(delay, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                return failed(e, tried);
+            } catch (TimeoutException e) {
+                Endpoint secondary = pick(tried);
+                //If the primary call failed in the meantime there is nothing to hedge: the result is already failed
+                if (secondary != null && hedge.join()) {
+                    tried.add(secondary);
+                    if (launch(secondary, method, args, hedge)) {
+                        LOGGER.debug("Hedging {} on {}", method.getName(), secondary);
+                    } else {
+                        hedge.leave(null);
+                    }
+                }
+            }
+
+            try {
+                return hedge.result.get();
+            } catch (ExecutionException e) {
+                return failed(e, tried);
+            }
+
+        }
+
+        /**
+         * Rethrows the error of a hedged call unless it was a network failure and there are endpoints left to try
+         */
+        private Object failed(ExecutionException e, Set<Endpoint> tried) throws Throwable {
+
+            Throwable cause = e.getCause();
+            if (cause instanceof ProcessingException && endpoints.size() > tried.size()) {
+                return null;
+            }
+            throw cause;
+
+        }
+
+        private boolean launch(Endpoint endpoint, Method method, Object[] args, Hedge hedge) {
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        hedge.result.complete(endpoint.invoke(method, args));
+                    } catch (Throwable e) {
+                        hedge.leave(e);
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+
+        }
+
+    }
+
+    /**
+     * The state shared by the calls of a hedged operation. The result fails with the last error once all calls joined
+     * have failed, and no call can join after that.
+     */
+    private static final class Hedge {
+
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        //Calls that have not failed yet
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private volatile Throwable failure;
+
+        /**
+         * Registers one more call, unless all calls so far have failed
+         *
+         * @return Whether the call was registered
+         */
+        private boolean join() {
+
+            int n;
+            do {
+                n = pending.get();
+                if (n == 0) {
+                    return false;
+                }
+            } while (!pending.compareAndSet(n, n + 1));
+            return true;
+
+        }
+
+        /**
+         * Unregisters a call that failed with the error passed (null if it could not be issued)
+         */
+        private void leave(Throwable error) {
+
+            if (error != null) {
+                failure = error;
+            }
+            if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(failure);
+            }
+
+        }
+
+    }
+
+    private static final class Endpoint {
+
+        private final PooledClient client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private volatile boolean healthy = true;
+
+        //Moving average of latency in milliseconds (0 means unknown)
+        private volatile double ewmaMillis;
+
+        private Endpoint(String entry, int defaultPort, boolean trustAll) {
+
+            String host = entry;
+            int port = defaultPort;
+            int colon = entry == null ? -1 : entry.lastIndexOf(':');
+            if (colon > 0) {
+                host = entry.substring(0, colon);
+                port = Integer.parseInt(entry.substring(colon + 1));
+            }
+            client = PooledClient.create(host, port, trustAll);
+
+        }
+
+        private double cost() {
+            return Math.max(ewmaMillis, 1) * (inFlight.get() + 1);
+        }
+
+        private Object invoke(Method method, Object[] args) throws Throwable {
+
+            inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                Object result = method.invoke(client.getClientInterface(), args);
+                record(System.nanoTime() - start);
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ProcessingException) {
+                    markDown(cause);
+                } else {
+                    //The server responded (e.g. with an error status): it is alive
+                    record(System.nanoTime() - start);
+                }
+                throw cause;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+
+        }
+
+        private synchronized void record(long nanos) {
+
+            double millis = nanos / 1e6;
+            ewmaMillis = ewmaMillis == 0 ? millis : EWMA_ALPHA * millis + (1 - EWMA_ALPHA) * ewmaMillis;
+
+        }
+
+        private void markDown(Throwable cause) {
+
+            if (healthy) {
+                healthy = false;
+                LOGGER.warn("oxd-server at {} taken out of rotation: {}", client, cause.toString());
+            }
+
+        }
+
+        private void checkHealth() {
+
+            try {
+                client.getClientInterface().healthCheck();
+                if (!healthy) {
+                    //Start afresh, previous latencies are no longer meaningful
+                    ewmaMillis = 0;
+                    healthy = true;
+                    LOGGER.info("oxd-server at {} back in rotation", client);
+                }
+            } catch (Exception e) {
+                markDown(e);
+            }
+
+        }
+
+        @Override
+        public String toString() {
+            return client.toString();
+        }
+
+    }
+
+}
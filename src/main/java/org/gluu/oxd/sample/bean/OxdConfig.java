@@ -12,18 +12,30 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.servlet.ServletContext;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * A bean employed to store configuration parameters related to oxd:
@@ -32,6 +44,12 @@ import java.util.Properties;
  * <li>Settings required to execute oxd-java API operations</li>
  * <li>Output of the latest Site Registration attempt</li>
  * </ul>
+ * <p>The output of a successful registration is persisted in a file readable only by its owner, along with a
+ * fingerprint of the settings it was made with, so it can be reused after a restart as long as settings are unchanged.</p>
+ * <p>Fields of this bean are bound to the settings page. Code serving requests should read the immutable snapshot
+ * returned by {@link #getSettings()} instead, which is republished after every registration and whenever the settings
+ * file is modified on disk. A modification of the settings a registration is made with drops the registration, and a
+ * new one is started in the background.</p>
  *
  * @author jgomer
  */
@@ -44,12 +62,21 @@ public class OxdConfig {
     private static final String TMP_DIR = System.getProperty("java.io.tmpdir");
     private static final String TMP_FILE_NAME = "oxd-java-sample.conf";
 
+    private static final Path REGISTRATION_FILE = Paths.get(System.getProperty("oxd.sample.registration-file",
+            Paths.get(TMP_DIR, "oxd-java-sample.registration").toString()));
+
     private ObjectMapper mapper;
     private Logger logger = LogManager.getLogger(getClass());
 
     @Inject
     private ServletContext context;
 
+    private final AtomicReference<OxdSettings> settings = new AtomicReference<>();
+    private WatchService watchService;
+    private Properties fileProps;
+    //Notified with the former snapshot when a reload drops the registration (see reload)
+    private volatile Consumer<OxdSettings> registrationListener;
+
     //Class fields used to "point" to oxd-server
     private String host;
     private int port;
@@ -88,6 +115,36 @@ public class OxdConfig {
         clientName = null;
     }
 
+    /**
+     * Sets the callback run (in the file watcher thread) when the settings file is modified in a way that makes the
+     * current registration unusable. It receives the settings published before the reload.
+     */
+    void onRegistrationReset(Consumer<OxdSettings> listener) {
+        registrationListener = listener;
+    }
+
+    /**
+     * Returns the latest published snapshot of settings.
+     * @return An {@link OxdSettings} instance (never null after application start)
+     */
+    public OxdSettings getSettings() {
+        return settings.get();
+    }
+
+    /**
+     * Makes the current values of this bean's fields visible to {@link #getSettings()} callers
+     * @return The snapshot just published
+     */
+    synchronized OxdSettings publish() {
+
+        OxdSettings previous = settings.get();
+        OxdSettings snapshot = new OxdSettings(this, previous == null ? 1 : previous.getVersion() + 1);
+        settings.set(snapshot);
+        logger.debug("Published settings {}", snapshot);
+        return snapshot;
+
+    }
+
     /**
      * Stores key parameters to disk. This allows the app to successfully interact with oxd server avoiding the user to
      * enter the configs manually upon every restart.
@@ -109,13 +166,57 @@ public class OxdConfig {
 
             Path path = Paths.get(TMP_DIR, TMP_FILE_NAME);
             logger.info("Saving oxd settings to {}", path.toString());
-            props.store(Files.newOutputStream(path), "oxd-sample-java");
+            synchronized (this) {
+                //Prevents the file watcher from reloading what we have just written
+                fileProps = props;
+            }
+            try (OutputStream out = Files.newOutputStream(path)) {
+                props.store(out, "oxd-sample-java");
+            }
+            storeRegistration();
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
 
     }
 
+    /**
+     * Saves the output of the latest registration (see {@link RegistrationStore})
+     */
+    private void storeRegistration() throws IOException {
+        RegistrationStore.store(REGISTRATION_FILE, fingerprint(), oxdId, clientId, clientSecret, clientName);
+    }
+
+    /**
+     * Loads the output of a previous registration if it was made with the settings currently in effect.
+     * @return True if a registration was restored (call {@link #publish()} to make it visible)
+     */
+    synchronized boolean restoreRegistration() {
+
+        Properties props = RegistrationStore.restore(REGISTRATION_FILE, fingerprint());
+        if (props == null) {
+            return false;
+        }
+        oxdId = props.getProperty("oxdId");
+        clientId = props.getProperty("clientId");
+        clientSecret = props.getProperty("clientSecret");
+        clientName = props.getProperty("clientName");
+        return true;
+
+    }
+
+    private String fingerprint() {
+        return RegistrationStore.fingerprint(host, Integer.toString(port), opHost, redirectUri, postLogoutUri, scopes,
+                acrValues, grantTypes);
+    }
+
+    /**
+     * Returns the context path of the app, e.g. to build URLs of its pages
+     */
+    String getContextPath() {
+        return context.getContextPath();
+    }
+
     /**
      * A method called once upon application start. It tries to read  parameters from disk or from Java system properties.
      * <p>If not found, the default values of a typical oxd installation are assumed.</p>
@@ -131,11 +232,8 @@ public class OxdConfig {
         trustAllClient = System.getProperty("trust.all.client") != null ? Boolean.valueOf(System.getProperty("trust.all.client"))  : false;
 
         if (Files.exists(path) && System.getProperty("oxd.sample.skip-conf-file") == null) {
-            Properties props = new Properties();
             try {
-                props.load(Files.newInputStream(path));
-                Map<String,String> mapprops = (Map)props;
-	            BeanUtils.populate(this, mapprops);
+                populate(readFile(path));
                 fileParsed = true;
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
@@ -162,12 +260,125 @@ public class OxdConfig {
         setRedirectUri(uri + URL_PREFIX + "/tokens.xhtml");
         setPostLogoutUri(uri + URL_PREFIX + "/post-logout.xhtml");
 
+        publish();
+        if (System.getProperty("oxd.sample.skip-conf-file") == null) {
+            watchSettingsFile();
+        }
+
+    }
+
+    @PreDestroy
+    private void destroy() {
+
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+
+    }
+
+    private Properties readFile(Path path) throws IOException {
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            props.load(in);
+        }
+        return props;
+
+    }
+
+    private synchronized void populate(Properties props) throws Exception {
+
+        Map<String, String> mapprops = (Map) props;
+        BeanUtils.populate(this, mapprops);
+        fileProps = props;
+
+    }
+
+    /**
+     * Starts a daemon thread that reloads and republishes settings whenever the settings file is created or modified
+     */
+    private void watchSettingsFile() {
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Paths.get(TMP_DIR).register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.warn("Settings file will not be watched for changes: {}", e.getMessage());
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= TMP_FILE_NAME.equals(String.valueOf(event.context()));
+                    }
+                    key.reset();
+                    if (changed) {
+                        reload();
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                logger.debug("Stopped watching settings file");
+            }
+        }, "oxd-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+    private void reload() {
+
+        Path path = Paths.get(TMP_DIR, TMP_FILE_NAME);
+        try {
+            Properties props = readFile(path);
+            OxdSettings previous;
+            boolean reset;
+            synchronized (this) {
+                if (props.equals(fileProps)) {
+                    return;
+                }
+                logger.info("Reloading oxd settings from {}", path.toString());
+                previous = settings.get();
+                String formerFingerprint = fingerprint();
+                String formerOxdId = oxdId;
+                populate(props);
+                //A registration made with other OP or oxd settings cannot be used, unless the file brings its own
+                reset = !fingerprint().equals(formerFingerprint) && Objects.equals(oxdId, formerOxdId);
+                if (reset) {
+                    resetClient();
+                }
+                publish();
+            }
+            Consumer<OxdSettings> listener = registrationListener;
+            if (reset && listener != null) {
+                logger.warn("Reloaded settings do not match the current registration, registering again");
+                listener.accept(previous);
+            }
+        } catch (Exception e) {
+            //The file may be in the middle of being written, a subsequent event will bring the final contents
+            logger.warn("Settings file could not be reloaded: {}", e.getMessage());
+        }
+
     }
 
     public static String getServerRoot() {
+        return getServerRoot(System.getProperty("oxd.sample.host", "localhost"));
+    }
+
+    /**
+     * Builds the root URL of the app when it is reached through a given host name
+     */
+    public static String getServerRoot(String hostName) {
 
         StringBuilder uri = new StringBuilder();
-        uri.append("https://").append(System.getProperty("oxd.sample.host", "localhost"));
+        uri.append("https://").append(hostName);
 
         String serverPort = System.getProperty("oxd.sample.port", "8463");
 
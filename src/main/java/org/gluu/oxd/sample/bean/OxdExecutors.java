@@ -0,0 +1,128 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the thread pools employed to talk to oxd-server off the request threads.
+ * <p>The kind of executor used for oxd calls is chosen with system property <code>oxd.sample.executor</code>:
+ * <code>virtual</code> (default) uses a virtual thread per call when the JVM supports it, and <code>pool</code> uses a
+ * bounded pool of platform threads.</p>
+ *
+ * @author jgomer
+ */
+final class OxdExecutors {
+
+    private static final Logger LOGGER = LogManager.getLogger(OxdExecutors.class);
+
+    private OxdExecutors() {
+    }
+
+    /**
+     * Creates a single-threaded scheduler for background housekeeping tasks.
+     */
+    static ScheduledExecutorService newScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(daemonFactory("oxd-scheduler"));
+    }
+
+    /**
+     * Creates a single-threaded scheduler for the timeouts of oxd calls (see
+     * {@link org.gluu.oxd.sample.resilience.CallGuard}). It runs nothing else, so timeouts fire on time even if tasks of
+     * the housekeeping scheduler are slow.
+     */
+    static ScheduledExecutorService newTimer() {
+
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, daemonFactory("oxd-timer"));
+        //Calls that complete in time cancel their timers, which should not pile up until they were due
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+
+    }
+
+    /**
+     * Creates the executor that runs oxd API operations issued asynchronously.
+     */
+    static ExecutorService newCallExecutor() {
+
+        ExecutorService virtual = newVirtualExecutor();
+        if (virtual != null) {
+            LOGGER.info("oxd calls will run on virtual threads");
+            return virtual;
+        }
+
+        int threads = Integer.getInteger("oxd.sample.executor.threads", 64);
+        int queueSize = Integer.getInteger("oxd.sample.executor.queue", 1000);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), daemonFactory("oxd-call"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+
+    }
+
+    /**
+     * Creates the executor that runs the calls sent by {@link OxdBalancer} to several oxd-server instances at once
+     * (hedging), and its health checks. Callers of oxd operations wait for these tasks, so they must not run in the
+     * executor of oxd calls: tasks waiting for tasks queued behind them in the same bounded pool would starve it. This
+     * executor does not queue either: when all its threads are busy, tasks are rejected and callers issue the call
+     * themselves.
+     */
+    static ExecutorService newHedgeExecutor() {
+
+        ExecutorService virtual = newVirtualExecutor();
+        if (virtual != null) {
+            return virtual;
+        }
+        int threads = Integer.getInteger("oxd.sample.executor.threads", 64);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), daemonFactory("oxd-hedge"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+
+    }
+
+    /**
+     * @return An executor running every task in a new virtual thread, or null if the JVM does not support them or
+     * <code>oxd.sample.executor</code> asks for a pool
+     */
+    private static ExecutorService newVirtualExecutor() {
+
+        if ("virtual".equals(System.getProperty("oxd.sample.executor", "virtual"))) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.info("Virtual threads are not available in this JVM, using thread pools for oxd calls");
+            }
+        }
+        return null;
+
+    }
+
+    private static ThreadFactory daemonFactory(String prefix) {
+
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+    }
+
+}
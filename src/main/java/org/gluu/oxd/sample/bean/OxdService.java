@@ -6,25 +6,48 @@
 package org.gluu.oxd.sample.bean;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.collect.Lists;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.gluu.oxd.client.ClientInterface;
 import org.gluu.oxd.client.GetTokensByCodeResponse2;
-import org.gluu.oxd.client.OxdClient;
 import org.gluu.oxd.common.params.*;
 import org.gluu.oxd.common.response.*;
-import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.gluu.oxd.sample.metrics.Metrics;
+import org.gluu.oxd.sample.resilience.CallGuard;
+import org.gluu.oxd.sample.security.IdTokenVerifier;
+import org.gluu.oxd.sample.security.JwksCache;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.ws.rs.core.MediaType;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
  * A managed bean that performs all the interactions with oxd-server (executes the oxd-java API calls).
+ * <p>Registration and the asynchronous variants of API methods run under a {@link CallGuard} per operation, so a slow
+ * or failing oxd-server makes calls fail fast instead of piling them up.</p>
+ * <p>API methods have variants that take the {@link Tenant} (OP/client pair) to operate on; the others operate on the
+ * default tenant, i.e. the one configured in the settings page. See {@link #getTenants()}.</p>
  *
  * @author jgomer
  */
@@ -35,53 +58,344 @@ public class OxdService {
     @Inject
     private OxdConfig config;
 
-    //Network clients (don't confuse with openID clients)
-    private ClientInterface clientInterface;
-    private ResteasyClient rsClient;
+    @Inject
+    private FlowTracer flowTracer;
+
+    //Runs background housekeeping tasks, e.g. refreshing the client token before it expires
+    private ScheduledExecutorService scheduler;
+
+    //Runs the timeouts of oxd calls only
+    private ScheduledExecutorService timer;
+
+    //Runs the operations invoked through the asynchronous variants of API methods
+    private ExecutorService executor;
+
+    //Runs hedged calls and health checks of oxd-server instances (see OxdExecutors#newHedgeExecutor)
+    private ExecutorService hedgeExecutor;
+
+    //Tenants hold the network client (don't confuse with openID clients) and client token of every OP/client pair
+    private TenantRegistry tenants;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    //Whether the logout URL is built in-process from the OP's discovery metadata instead of calling oxd
+    private static final boolean LOCAL_LOGOUT_URL = Boolean.getBoolean("oxd.sample.local-logout-url");
+
+    private OpDiscovery discovery;
+    private IdTokenVerifier idTokenVerifier;
+    private UserInfoCache userInfoCache;
+    private TokenRefresher tokenRefresher;
+
+    //Protect every kind of oxd operation from the others, and the app from a slow or failing oxd-server/OP
+    private CallGuard registerGuard;
+    private CallGuard authzUrlGuard;
+    private CallGuard tokensGuard;
+    private CallGuard userInfoGuard;
+    private CallGuard logoutGuard;
+    private CallGuard refreshGuard;
+
+    //Max number of seconds between attempts of a background registration
+    private static final long MAX_REGISTER_BACKOFF = Long.getLong("oxd.sample.register.max-backoff", 60L);
+
+    //Milliseconds a replaced oxd client is kept open so that calls already using it can complete
+    private static final long CLIENT_CLOSE_GRACE_MILLIS = Long.getLong("oxd.server.close-grace-ms", 5000L);
+
+    //Replaced oxd clients not closed yet
+    private final Set<OxdBalancer> staleClients = ConcurrentHashMap.newKeySet();
+
+    //Serializes registrations (background and those triggered from the settings page), as they alter config fields
+    private final Object registrationLock = new Object();
 
     private Logger logger = LogManager.getLogger(getClass());
 
+    @PostConstruct
+    private void init() {
+
+        scheduler = OxdExecutors.newScheduler();
+        timer = OxdExecutors.newTimer();
+        executor = OxdExecutors.newCallExecutor();
+        hedgeExecutor = OxdExecutors.newHedgeExecutor();
+        Supplier<ClientTokenCache> tokenCaches = () -> new ClientTokenCache(scheduler, executor);
+        tenants = new TenantRegistry(config, new Tenant(config::getSettings, tokenCaches.get()), tokenCaches,
+                this::startRegistration, this::retire);
+        discovery = new OpDiscovery(executor, this::fetchDiscovery);
+        idTokenVerifier = new IdTokenVerifier(new JwksCache());
+        userInfoCache = new UserInfoCache();
+        tokenRefresher = new TokenRefresher(scheduler);
+
+        registerGuard = new CallGuard("register", 1, executor, timer);
+        authzUrlGuard = new CallGuard("authz-url", 32, executor, timer);
+        tokensGuard = new CallGuard("tokens", 32, executor, timer);
+        userInfoGuard = new CallGuard("userinfo", 32, executor, timer);
+        logoutGuard = new CallGuard("logout", 32, executor, timer);
+        refreshGuard = new CallGuard("refresh", 32, executor, timer);
+
+        registerMetrics();
+        config.onRegistrationReset(this::reregister);
+
+    }
+
+    private void registerMetrics() {
+
+        Metrics.counter("oxd_client_token_cache_hits_total", "Client token requests served from memory",
+                () -> tenants.getTenants().stream().mapToLong(t -> t.getClientTokenCache().getHits()).sum());
+        Metrics.counter("oxd_client_token_cache_misses_total", "Client token requests that needed a call to oxd-server",
+                () -> tenants.getTenants().stream().mapToLong(t -> t.getClientTokenCache().getMisses()).sum());
+        Metrics.gauge("oxd_tenants", "Tenants currently defined, including the default one", () -> tenants.getTenants().size());
+        Metrics.counter("oxd_userinfo_cache_hits_total", "User info requests served from memory", userInfoCache::getHits);
+        Metrics.counter("oxd_userinfo_cache_misses_total", "User info requests that needed a call to oxd-server", userInfoCache::getMisses);
+        Metrics.counter("oxd_userinfo_cache_evictions_total", "User info responses evicted from memory", userInfoCache::getEvictions);
+        Metrics.gauge("oxd_userinfo_cache_size", "User info responses currently held in memory", userInfoCache::getSize);
+        Metrics.gauge("flow_token_refreshes_pending", "Access token refreshes scheduled for active flows", tokenRefresher::getPending);
+        Metrics.gauge("flow_traces_active", "Traces of sampled flows in progress", flowTracer::getActive);
+        Metrics.counter("flow_traces_finished_total", "Traces of sampled flows finished", flowTracer::getFinished);
+        Metrics.counter("flow_traces_dropped_total", "Finished traces not written to the trace file", flowTracer::getDropped);
+
+        for (CallGuard guard : getGuards()) {
+            String name = guard.getName();
+            Metrics.gauge("oxd_guard_circuit_state", "State of the circuit breaker: 0 closed, 1 open, 2 half-open",
+                    () -> guard.getState().ordinal(), "operation", name);
+            Metrics.counter("oxd_guard_circuit_transitions_total", "State changes of the circuit breaker",
+                    guard::getStateTransitions, "operation", name);
+            Metrics.gauge("oxd_guard_timeout_seconds", "Current adaptive timeout", () -> guard.getTimeoutMillis() / 1000.0,
+                    "operation", name);
+            Metrics.gauge("oxd_guard_active_calls", "Calls in progress", guard::getActive, "operation", name);
+            Metrics.gauge("oxd_guard_queued_calls", "Calls waiting for a slot in the bulkhead", guard::getQueued, "operation", name);
+            Metrics.counter("oxd_guard_successes_total", "Calls completed successfully", guard::getSuccesses, "operation", name);
+            Metrics.counter("oxd_guard_failures_total", "Calls that failed", guard::getFailures, "operation", name);
+            Metrics.counter("oxd_guard_timeouts_total", "Calls that timed out", guard::getTimeouts, "operation", name);
+            Metrics.counter("oxd_guard_rejections_total", "Calls refused by the bulkhead or circuit breaker",
+                    guard::getRejections, "operation", name);
+        }
+
+    }
+
     /**
-     * Calls Site Registration operations by supplying
-     * current configuration parameters. Actual calls are issued only if all necessary parameters are present.
+     * Returns the network client used to issue calls to oxd-server. The same client is handed out on every call as long
+     * as oxd hosts, port, and trust settings remain unchanged. When several oxd-server hosts are configured, calls are
+     * balanced among them (see {@link OxdBalancer}).
      *
-     * @return True if operation was carried out successfully. False otherwise (failed operation or missing parameters)
+     * @return A thread-safe {@link ClientInterface} instance
      */
     public ClientInterface getClient() throws Exception {
-        if (config.isTrustAllClient()) {
-            return OxdClient.newTrustAllClient(getTargetHost(config.getHost(), config.getPort()));
+        Tenant tenant = tenants.getDefault();
+        return getClient(tenant, tenant.getSettings());
+    }
+
+    private ClientInterface getClient(Tenant tenant, OxdSettings settings) {
+        return getBalancer(tenant, settings).getClientInterface();
+    }
+
+    private OxdBalancer getBalancer(Tenant tenant, OxdSettings settings) {
+
+        String host = settings.getHost();
+        int port = settings.getPort();
+        boolean trustAll = settings.isTrustAllClient();
+
+        OxdBalancer client = tenant.getBalancer();
+        if (client == null || !client.matches(host, port, trustAll)) {
+            client = rebuildClient(tenant, host, port, trustAll);
         }
-        return OxdClient.newClient(getTargetHost(config.getHost(), config.getPort()));
+        return client;
+
     }
 
-    public boolean register() {
+    /**
+     * Returns the registry of tenants, i.e. the OP/client pairs the sample flow can be run against. Tenants can be
+     * added and removed at runtime; those added register at oxd-server in the background.
+     */
+    public TenantRegistry getTenants() {
+        return tenants;
+    }
+
+    /**
+     * Prepares the app to serve the sample flow without blocking the caller. A registration persisted earlier with the
+     * current settings is reused; otherwise registration runs in the background and is retried with exponential backoff
+     * until it succeeds. Meanwhile pages can check {@link #isReady()} and {@link #isRegistering()}. The same applies to
+     * the tenants found in the tenants directory, if any.
+     */
+    public void start() {
+
+        Tenant tenant = tenants.getDefault();
+        if (config.restoreRegistration()) {
+            OxdSettings settings = config.publish();
+            logger.info("Reusing stored registration, oxd-id is {}", settings.getOxdId());
+        } else if (hasRequiredSettings(tenant)) {
+            startRegistration(tenant);
+        } else {
+            logger.info("One or more required parameters are missing, registration must be performed in the settings page");
+        }
+        tenants.start();
 
-        config.resetClient();
-        logger.info("Attempting registration with settings: {}", config.toString());
+    }
 
-        try {
-            boolean nulls = config.getPort() == 0 ||
+    /**
+     * Tells whether a registration is available for the default tenant, that is, whether the sample flow can be used.
+     */
+    public boolean isReady() {
+        return tenants.getDefault().isReady();
+    }
+
+    /**
+     * Tells whether a registration of the default tenant started by {@link #start()} is still in progress.
+     */
+    public boolean isRegistering() {
+        return tenants.getDefault().isRegistering();
+    }
+
+    private void startRegistration(Tenant tenant) {
+
+        if (hasRequiredSettings(tenant)) {
+            tenant.getRegisteringFlag().set(true);
+            executor.execute(() -> registerInBackground(tenant, 1));
+        } else {
+            logger.warn("One or more required parameters of tenant {} are missing", tenant.getId());
+        }
+
+    }
+
+    /**
+     * Discards what was obtained with the registration of the default tenant that a reload of the settings file has
+     * just dropped, and registers it again with the settings reloaded.
+     */
+    private void reregister(OxdSettings previous) {
+
+        Tenant tenant = tenants.getDefault();
+        tenant.getClientTokenCache().invalidate();
+        if (previous != null) {
+            discovery.invalidate(previous.getOpHost());
+        }
+        discovery.invalidate(tenant.getSettings().getOpHost());
+        if (!tenant.isRegistering()) {
+            startRegistration(tenant);
+        }
+
+    }
+
+    private void registerInBackground(Tenant tenant, long backoffSeconds) {
+
+        //A registration may have succeeded meanwhile from the settings page, or the tenant may be gone
+        if (tenant.isReady() || !tenants.contains(tenant) || register(tenant) || !hasRequiredSettings(tenant)) {
+            tenant.getRegisteringFlag().set(false);
+            return;
+        }
+        logger.info("Registration of tenant {} will be retried in {} seconds", tenant.getId(), backoffSeconds);
+        long next = Math.min(backoffSeconds * 2, MAX_REGISTER_BACKOFF);
+        scheduler.schedule(() -> executor.execute(() -> registerInBackground(tenant, next)), backoffSeconds, TimeUnit.SECONDS);
+
+    }
+
+    private boolean hasRequiredSettings(Tenant tenant) {
+
+        if (tenant.isDefault()) {
+            return config.getPort() != 0 &&
                     Stream.of(config.getOpHost(), config.getHost(), config.getAcrValues(), config.getScopes(), config.getGrantTypes(), config.getRedirectUri(), config.getPostLogoutUri())
-                            .anyMatch(obj -> obj == null || obj.length() == 0);
+                            .noneMatch(obj -> obj == null || obj.length() == 0);
+        }
+        OxdSettings settings = tenant.getSettings();
+        return settings.getPort() != 0 && StringUtils.isNotEmpty(settings.getOpHost()) && StringUtils.isNotEmpty(settings.getHost())
+                && StringUtils.isNotEmpty(settings.getPostLogoutUri()) &&
+                Stream.of(settings.getAcrValues(), settings.getScopes(), settings.getGrantTypes(), settings.getRedirectUris())
+                        .noneMatch(List::isEmpty);
+
+    }
+
+    /**
+     * Releases the resources of a tenant that was removed or replaced
+     */
+    private void retire(Tenant tenant) {
+
+        tenant.getClientTokenCache().invalidate();
+        OxdBalancer client;
+        synchronized (this) {
+            client = tenant.getBalancer();
+            tenant.setBalancer(null);
+        }
+        if (client != null) {
+            logger.info("Closing oxd client {} of tenant {}", client, tenant.getId());
+            client.close();
+        }
+
+    }
 
-            if (nulls)
-                logger.info("One or more required parameters are missing");
-            else {
-                ClientInterface clientInterface = getClient();
-                doRegistration(clientInterface);
+    /**
+     * Calls Site Registration operations by supplying
+     * current configuration parameters. Actual calls are issued only if all necessary parameters are present.
+     *
+     * @return True if operation was carried out successfully. False otherwise (failed operation or missing parameters)
+     */
+    public boolean register() {
+
+        synchronized (registrationLock) {
+            Tenant tenant = tenants.getDefault();
+            config.resetClient();
+            tenant.getClientTokenCache().invalidate();
+            //Settings entered so far take effect from now on
+            OxdSettings settings = config.publish();
+            discovery.invalidate(settings.getOpHost());
+            logger.info("Attempting registration with settings: {}", config.toString());
+
+            try {
+                if (!hasRequiredSettings(tenant))
+                    logger.info("One or more required parameters are missing");
+                else {
+                    await(registerGuard.submit(() -> {
+                        doRegistration(getClient(tenant, settings), settings);
+                        return null;
+                    }));
+                }
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+            config.publish();
+            if (config.getOxdId() == null) {
+                logger.warn("Registration failed");
+                return false;
+            } else {
+                //Make settings and registration persistent
+                config.store();
+
+                logger.warn("Registration successful");
+                return true;
             }
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
         }
-        if (config.getOxdId() == null) {
-            logger.warn("Registration failed");
-            return false;
-        } else {
-            //Make settings persistent
-            config.store();
 
-            logger.warn("Registration successful");
-            return true;
+    }
+
+    /**
+     * Registers a tenant with its current definition. The default tenant is registered as in {@link #register()}.
+     *
+     * @return True if operation was carried out successfully. False otherwise
+     */
+    private boolean register(Tenant tenant) {
+
+        if (tenant.isDefault()) {
+            return register();
+        }
+        synchronized (tenant) {
+            tenant.getClientTokenCache().invalidate();
+            OxdSettings settings = tenant.publish(null);
+            logger.info("Attempting registration of tenant {}", tenant);
+
+            try {
+                String clientName = "sampleapp-client-" + tenant.getId() + "-" + System.currentTimeMillis();
+                RegisterSiteResponse resp = await(registerGuard.submit(() -> registerSite(getClient(tenant, settings), settings, clientName)));
+
+                String[] values = { resp.getOxdId(), resp.getClientId(), resp.getClientSecret(), clientName };
+                Properties registration = new Properties();
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != null) {
+                        registration.setProperty(OxdSettings.REGISTRATION_PROPERTIES[i], values[i]);
+                    }
+                }
+                tenant.publish(registration);
+                tenants.storeRegistration(tenant);
+                logger.warn("Registration of tenant {} successful", tenant.getId());
+                return true;
+            } catch (Exception e) {
+                logger.error("Registration of tenant {} failed: {}", tenant.getId(), e.getMessage());
+                return false;
+            }
         }
 
     }
@@ -91,27 +405,33 @@ public class OxdService {
      *
      * @throws Exception When the operation failed to succeed
      */
-    private void doRegistration(ClientInterface clientInterface) throws Exception {
+    private void doRegistration(ClientInterface clientInterface, OxdSettings settings) throws Exception {
 
         config.setClientName("sampleapp-client-extension-" + System.currentTimeMillis());
 
-        final RegisterSiteParams params = new RegisterSiteParams();
-        params.setOpHost(config.getOpHost());
-        params.setPostLogoutRedirectUris(Lists.newArrayList(config.getPostLogoutUri().split(" ")));
-        params.setRedirectUris(Lists.newArrayList(config.getRedirectUri().split(" ")));
-        params.setScope(Lists.newArrayList(config.getScopes().split(" ")));
-        params.setGrantTypes(Lists.newArrayList(config.getGrantTypes().split(" ")));
-        params.setClientName(config.getClientName());
-        //params.setResponseTypes(Lists.newArrayList("code"));
-        params.setAcrValues(Lists.newArrayList(config.getAcrValues().split(" ")));
-
-        final RegisterSiteResponse resp = clientInterface.registerSite(params);
+        final RegisterSiteResponse resp = registerSite(clientInterface, settings, config.getClientName());
 
         config.setOxdId(resp.getOxdId());
         config.setClientId(resp.getClientId());
         config.setClientSecret(resp.getClientSecret());
     }
 
+    private static RegisterSiteResponse registerSite(ClientInterface clientInterface, OxdSettings settings, String clientName) {
+
+        final RegisterSiteParams params = new RegisterSiteParams();
+        params.setOpHost(settings.getOpHost());
+        params.setPostLogoutRedirectUris(settings.getPostLogoutUris());
+        params.setRedirectUris(settings.getRedirectUris());
+        params.setScope(settings.getScopes());
+        params.setGrantTypes(settings.getGrantTypes());
+        params.setClientName(clientName);
+        //params.setResponseTypes(Lists.newArrayList("code"));
+        params.setAcrValues(settings.getAcrValues());
+
+        return clientInterface.registerSite(params);
+
+    }
+
     /**
      * Calls the Get Authorization URL API operation.
      *
@@ -119,15 +439,26 @@ public class OxdService {
      * @throws Exception When the operation failed to succeed
      */
     public String getAuthzUrl() throws Exception {
+        return getAuthzUrl(tenants.getDefault());
+    }
+
+    /**
+     * Calls the Get Authorization URL API operation on behalf of a tenant.
+     *
+     * @return String URL consisting of an authentication request with desired parameters
+     * @throws Exception When the operation failed to succeed
+     */
+    public String getAuthzUrl(Tenant tenant) throws Exception {
 
-        ClientInterface clientInterface = getClient();
+        OxdSettings settings = tenant.getSettings();
+        ClientInterface clientInterface = getClient(tenant, settings);
 
         GetAuthorizationUrlParams cmdParams = new GetAuthorizationUrlParams();
-        cmdParams.setOxdId(config.getOxdId());
-        cmdParams.setAcrValues(Lists.newArrayList(config.getAcrValues().split(" ")));
-        cmdParams.setScope(Lists.newArrayList(config.getScopes().split(" ")));
+        cmdParams.setOxdId(settings.getOxdId());
+        cmdParams.setAcrValues(settings.getAcrValues());
+        cmdParams.setScope(settings.getScopes());
 
-        final GetAuthorizationUrlResponse resp = clientInterface.getAuthorizationUrl(getClientToken(clientInterface), null, cmdParams);
+        final GetAuthorizationUrlResponse resp = clientInterface.getAuthorizationUrl(getClientToken(tenant, settings), null, cmdParams);
 
         return resp.getAuthorizationUrl();
 
@@ -142,15 +473,25 @@ public class OxdService {
      * @throws Exception When the operation failed to succeed
      */
     public GetTokensByCodeResponse2 getTokens(String code, String state) throws Exception {
+        return getTokens(tenants.getDefault(), code, state);
+    }
 
-        ClientInterface clientInterface = getClient();
+    /**
+     * Calls the Get Tokens by Code API operation on behalf of a tenant.
+     *
+     * @throws Exception When the operation failed to succeed
+     */
+    public GetTokensByCodeResponse2 getTokens(Tenant tenant, String code, String state) throws Exception {
+
+        OxdSettings settings = tenant.getSettings();
+        ClientInterface clientInterface = getClient(tenant, settings);
 
         GetTokensByCodeParams cmdParams = new GetTokensByCodeParams();
-        cmdParams.setOxdId(config.getOxdId());
+        cmdParams.setOxdId(settings.getOxdId());
         cmdParams.setCode(code);
         cmdParams.setState(state);
 
-        GetTokensByCodeResponse2 resp = clientInterface.getTokenByCode(getClientToken(clientInterface), null, cmdParams);
+        GetTokensByCodeResponse2 resp = clientInterface.getTokenByCode(getClientToken(tenant, settings), null, cmdParams);
         return resp;
     }
 
@@ -162,58 +503,395 @@ public class OxdService {
      * @throws Exception When the operation failed to succeed
      */
     public JsonNode getUserInfo(String accessToken) throws Exception {
+        return getUserInfo(accessToken, -1);
+    }
+
+    /**
+     * Calls the Get User Info API operation. Responses are cached for a short time, so repeated calls with the same
+     * access token (e.g. page reloads) are answered from memory.
+     *
+     * @param accessToken          Parameter access_token
+     * @param accessTokenExpiresAt Time (in milliseconds since the epoch) at which the access token expires, or a
+     *                             negative value if unknown. Cached responses are never kept beyond this time
+     * @return A {@link JsonNode com.fasterxml.jackson.databind.JsonNode} object
+     * @throws Exception When the operation failed to succeed
+     */
+    public JsonNode getUserInfo(String accessToken, long accessTokenExpiresAt) throws Exception {
+        return getUserInfo(tenants.getDefault(), accessToken, accessTokenExpiresAt);
+    }
+
+    /**
+     * Calls the Get User Info API operation on behalf of a tenant. See {@link #getUserInfo(String, long)}.
+     *
+     * @throws Exception When the operation failed to succeed
+     */
+    public JsonNode getUserInfo(Tenant tenant, String accessToken, long accessTokenExpiresAt) throws Exception {
+
+        long remaining = accessTokenExpiresAt < 0 ? -1 :
+                TimeUnit.MILLISECONDS.toNanos(Math.max(accessTokenExpiresAt - System.currentTimeMillis(), 0));
+        return userInfoCache.get(accessToken, remaining, () -> requestUserInfo(tenant, accessToken));
+
+    }
+
+    /**
+     * Calls the Get Access Token by Refresh Token API operation on behalf of a tenant.
+     *
+     * @param refreshToken Parameter refresh_token, as obtained from the Get Tokens by Code operation
+     * @return A {@link GetClientTokenResponse} object holding the new access token, its lifetime, and possibly a new
+     * refresh token
+     * @throws Exception When the operation failed to succeed
+     */
+    public GetClientTokenResponse refreshAccessToken(Tenant tenant, String refreshToken) throws Exception {
 
-        ClientInterface clientInterface = getClient();
+        OxdSettings settings = tenant.getSettings();
+        ClientInterface clientInterface = getClient(tenant, settings);
+
+        GetAccessTokenByRefreshTokenParams cmdParams = new GetAccessTokenByRefreshTokenParams();
+        cmdParams.setOxdId(settings.getOxdId());
+        cmdParams.setRefreshToken(refreshToken);
+        cmdParams.setScope(settings.getScopes());
+
+        return clientInterface.getAccessTokenByRefreshToken(getClientToken(tenant, settings), null, cmdParams);
+
+    }
+
+    /**
+     * Returns the scheduler of access token refreshes shared by all flows.
+     */
+    TokenRefresher getTokenRefresher() {
+        return tokenRefresher;
+    }
+
+    /**
+     * Returns the cache of user info responses (e.g. to inspect its hit ratio).
+     */
+    public UserInfoCache getUserInfoCache() {
+        return userInfoCache;
+    }
+
+    private JsonNode requestUserInfo(Tenant tenant, String accessToken) throws Exception {
+
+        OxdSettings settings = tenant.getSettings();
+        ClientInterface clientInterface = getClient(tenant, settings);
 
         GetUserInfoParams cmdParams = new GetUserInfoParams();
-        cmdParams.setOxdId(config.getOxdId());
+        cmdParams.setOxdId(settings.getOxdId());
         cmdParams.setAccessToken(accessToken);
-        JsonNode resp = clientInterface.getUserInfo(getClientToken(clientInterface), null, cmdParams);
+        JsonNode resp = clientInterface.getUserInfo(getClientToken(tenant, settings), null, cmdParams);
 
         return resp;
 
     }
 
     /**
-     * Calls the Get Logout URI API operation.
+     * Calls the Get Logout URI API operation. If system property <code>oxd.sample.local-logout-url</code> is true, the
+     * URL is built from the end session endpoint found in OP's discovery metadata and no call to oxd is issued.
      *
      * @return A String representing the URL to redirect the user to (in order to log out of the OP)
      * @throws Exception When the operation failed to succeed
      */
     public String getLogoutUrl(String idTokenHint) throws Exception {
+        return getLogoutUrl(tenants.getDefault(), idTokenHint);
+    }
+
+    /**
+     * Calls the Get Logout URI API operation on behalf of a tenant. See {@link #getLogoutUrl(String)}.
+     *
+     * @throws Exception When the operation failed to succeed
+     */
+    public String getLogoutUrl(Tenant tenant, String idTokenHint) throws Exception {
 
-        ClientInterface clientInterface = getClient();
+        OxdSettings settings = tenant.getSettings();
+        if (LOCAL_LOGOUT_URL) {
+            String endSessionEndpoint = discovery.get(tenant, settings.getOpHost()).getEndSessionEndpoint();
+            if (endSessionEndpoint != null) {
+                return buildLogoutUrl(endSessionEndpoint, settings, idTokenHint);
+            }
+            logger.warn("OP does not advertise an end session endpoint, falling back to oxd");
+        }
+        ClientInterface clientInterface = getClient(tenant, settings);
 
         final GetLogoutUrlParams params = new GetLogoutUrlParams();
-        params.setOxdId(config.getOxdId());
+        params.setOxdId(settings.getOxdId());
         params.setIdTokenHint("dummy_token");
-        params.setPostLogoutRedirectUri(config.getPostLogoutUri());
+        params.setPostLogoutRedirectUri(settings.getPostLogoutUri());
         params.setState(UUID.randomUUID().toString());
         params.setSessionState(UUID.randomUUID().toString()); // here must be real session instead of dummy UUID
 
-        final GetLogoutUriResponse resp = clientInterface.getLogoutUri(getClientToken(clientInterface), null, params);
+        final GetLogoutUriResponse resp = clientInterface.getLogoutUri(getClientToken(tenant, settings), null, params);
 
         return resp.getUri();
 
     }
 
-    private String getClientToken(ClientInterface clientInterface) {
-        if (StringUtils.isNotBlank(config.getOxdId())) {
-            final GetClientTokenParams params = new GetClientTokenParams();
-            params.setOpHost(config.getOpHost());
-            params.setScope(Lists.newArrayList(config.getScopes().split(" ")));
-            params.setClientId(config.getClientId());
-            params.setClientSecret(config.getClientSecret());
+    /**
+     * Returns the discovery metadata of the OP currently configured. Metadata is cached and refreshed periodically.
+     *
+     * @return An {@link OpMetadata} instance
+     * @throws Exception If metadata was not cached and could not be retrieved
+     */
+    public OpMetadata getOpMetadata() throws Exception {
+        return discovery.get(tenants.getDefault(), config.getSettings().getOpHost());
+    }
+
+    /**
+     * Verifies an ID Token in-process, that is, without calling oxd-server. The keys of the OP are cached in memory.
+     *
+     * @param idToken ID Token as received from the Get Tokens by Code operation
+     * @param nonce   Expected value of the nonce claim (null to skip this check)
+     * @return The claims contained in the token
+     * @throws Exception If the token is not valid or OP metadata/keys could not be retrieved
+     */
+    public JsonNode verifyIdToken(String idToken, String nonce) throws Exception {
+        return verifyIdToken(tenants.getDefault(), idToken, nonce);
+    }
+
+    /**
+     * Verifies an ID Token issued to the client of a tenant. See {@link #verifyIdToken(String, String)}.
+     *
+     * @throws Exception If the token is not valid or OP metadata/keys could not be retrieved
+     */
+    public JsonNode verifyIdToken(Tenant tenant, String idToken, String nonce) throws Exception {
+
+        OxdSettings settings = tenant.getSettings();
+        OpMetadata metadata = discovery.get(tenant, settings.getOpHost());
+        return idTokenVerifier.verify(idToken, metadata.getJwksUri(), metadata.getIssuer(), settings.getClientId(), nonce,
+                url -> fetchDocument(tenant, url));
+
+    }
+
+    private OpMetadata fetchDiscovery(Tenant tenant, String opHost) throws Exception {
+
+        String url = StringUtils.removeEnd(opHost, "/") + "/.well-known/openid-configuration";
+        return new OpMetadata(opHost, Json.MAPPER.readTree(fetchDocument(tenant, url)));
+
+    }
+
+    /**
+     * Retrieves a JSON document with the network client of a tenant
+     */
+    private String fetchDocument(Tenant tenant, String url) {
+        return getBalancer(tenant, tenant.getSettings()).getResteasyClient()
+                .target(url).request(MediaType.APPLICATION_JSON).get(String.class);
+    }
+
+    private static String buildLogoutUrl(String endSessionEndpoint, OxdSettings settings, String idTokenHint) throws Exception {
 
-            GetClientTokenResponse resp = clientInterface.getClientToken(params);
+        StringBuilder url = new StringBuilder(endSessionEndpoint).append(endSessionEndpoint.contains("?") ? '&' : '?');
+        if (idTokenHint != null) {
+            url.append("id_token_hint=").append(URLEncoder.encode(idTokenHint, "UTF-8")).append('&');
+        }
+        url.append("post_logout_redirect_uri=").append(URLEncoder.encode(settings.getPostLogoutUri(), "UTF-8"))
+                .append("&state=").append(UUID.randomUUID().toString());
+        return url.toString();
+
+    }
 
-            return "Bearer " + resp.getAccessToken();
+    /**
+     * Returns the Bearer token required to protect calls to oxd-server. A cached token is returned when available.
+     *
+     * @throws Exception When the Get Client Token operation failed to succeed
+     */
+    private String getClientToken(Tenant tenant, OxdSettings settings) throws Exception {
+        if (StringUtils.isNotBlank(settings.getOxdId())) {
+            return tenant.getClientTokenCache().get(() -> requestClientToken(tenant, tenant.getSettings()));
         }
         return null;
     }
 
-    private static String getTargetHost(String host, int port) {
-        return "https://" + host + ":" + port;
+    /**
+     * Calls the Get Client Token API operation.
+     */
+    private GetClientTokenResponse requestClientToken(Tenant tenant, OxdSettings settings) {
+
+        final GetClientTokenParams params = new GetClientTokenParams();
+        params.setOpHost(settings.getOpHost());
+        params.setScope(settings.getScopes());
+        params.setClientId(settings.getClientId());
+        params.setClientSecret(settings.getClientSecret());
+
+        return getClient(tenant, settings).getClientToken(params);
+
+    }
+
+    /**
+     * Asynchronous variant of {@link #getAuthzUrl()}.
+     *
+     * @return A future completed with the authorization URL, or exceptionally if the operation failed
+     */
+    public CompletableFuture<String> getAuthzUrlAsync() {
+        return getAuthzUrlAsync(tenants.getDefault());
+    }
+
+    /**
+     * Asynchronous variant of {@link #getAuthzUrl(Tenant)}.
+     */
+    public CompletableFuture<String> getAuthzUrlAsync(Tenant tenant) {
+        return submit(authzUrlGuard, () -> getAuthzUrl(tenant));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getTokens(String, String)}.
+     *
+     * @return A future completed with the tokens response, or exceptionally if the operation failed
+     */
+    public CompletableFuture<GetTokensByCodeResponse2> getTokensAsync(String code, String state) {
+        return getTokensAsync(tenants.getDefault(), code, state);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getTokens(Tenant, String, String)}.
+     */
+    public CompletableFuture<GetTokensByCodeResponse2> getTokensAsync(Tenant tenant, String code, String state) {
+        return submit(tokensGuard, () -> getTokens(tenant, code, state));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getUserInfo(String, long)}.
+     *
+     * @return A future completed with the user claims, or exceptionally if the operation failed
+     */
+    public CompletableFuture<JsonNode> getUserInfoAsync(String accessToken, long accessTokenExpiresAt) {
+        return getUserInfoAsync(tenants.getDefault(), accessToken, accessTokenExpiresAt);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getUserInfo(Tenant, String, long)}.
+     */
+    public CompletableFuture<JsonNode> getUserInfoAsync(Tenant tenant, String accessToken, long accessTokenExpiresAt) {
+
+        //Cached responses neither need a thread nor should count in the latencies of userinfo calls
+        JsonNode cached = userInfoCache.getIfPresent(accessToken);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return submit(userInfoGuard, () -> getUserInfo(tenant, accessToken, accessTokenExpiresAt));
+
+    }
+
+    /**
+     * Asynchronous variant of {@link #getLogoutUrl(String)}.
+     *
+     * @return A future completed with the logout URL, or exceptionally if the operation failed
+     */
+    public CompletableFuture<String> getLogoutUrlAsync(String idTokenHint) {
+        return getLogoutUrlAsync(tenants.getDefault(), idTokenHint);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getLogoutUrl(Tenant, String)}.
+     */
+    public CompletableFuture<String> getLogoutUrlAsync(Tenant tenant, String idTokenHint) {
+        return submit(logoutGuard, () -> getLogoutUrl(tenant, idTokenHint));
+    }
+
+    /**
+     * Asynchronous variant of {@link #refreshAccessToken(Tenant, String)}.
+     *
+     * @return A future completed with the new access token, or exceptionally if the operation failed
+     */
+    public CompletableFuture<GetClientTokenResponse> refreshAccessTokenAsync(Tenant tenant, String refreshToken) {
+        return submit(refreshGuard, () -> refreshAccessToken(tenant, refreshToken));
+    }
+
+    /**
+     * Submits an operation to its guard. If the current thread works on behalf of a traced flow, a span covering the
+     * whole call (including the time queued in the guard) is added to the trace.
+     */
+    private <T> CompletableFuture<T> submit(CallGuard guard, Callable<T> operation) {
+
+        FlowTrace trace = flowTracer.current();
+        if (trace == null) {
+            return guard.submit(operation);
+        }
+        FlowTrace.Span span = trace.begin("call", guard.getName());
+        CompletableFuture<T> future = guard.submit(operation);
+        future.whenComplete((result, e) -> span.end(e));
+        return future;
+
+    }
+
+    /**
+     * Returns the guards that protect oxd operations (e.g. to inspect the state of their circuit breakers).
+     */
+    public List<CallGuard> getGuards() {
+        return Arrays.asList(registerGuard, authzUrlGuard, tokensGuard, userInfoGuard, logoutGuard, refreshGuard);
+    }
+
+    /**
+     * Stops background tasks and closes the network clients (and their pooled connections) created for tenants. Calls
+     * after the first one do nothing.
+     */
+    @PreDestroy
+    public void close() {
+
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.shutdownNow();
+        timer.shutdownNow();
+        executor.shutdown();
+        hedgeExecutor.shutdown();
+        tenants.close();
+        tenants.getTenants().forEach(this::retire);
+        staleClients.removeIf(client -> {
+            client.close();
+            return true;
+        });
+
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+
+    }
+
+    private synchronized OxdBalancer rebuildClient(Tenant tenant, String host, int port, boolean trustAll) {
+
+        OxdBalancer previous = tenant.getBalancer();
+        if (previous != null && previous.matches(host, port, trustAll)) {
+            return previous;
+        }
+
+        OxdBalancer client = OxdBalancer.create(host, port, trustAll, hedgeExecutor, scheduler, flowTracer);
+        logger.info("Created oxd client {} for tenant {}", client, tenant.getId());
+        tenant.setBalancer(client);
+
+        if (previous != null) {
+            staleClients.add(previous);
+            closeWhenIdle(previous);
+        }
+        return client;
+
+    }
+
+    /**
+     * Closes a replaced oxd client once the grace period elapsed and no calls are running on it
+     */
+    private void closeWhenIdle(OxdBalancer client) {
+
+        try {
+            scheduler.schedule(() -> {
+                if (client.getCallsInProgress() > 0) {
+                    closeWhenIdle(client);
+                } else if (staleClients.remove(client)) {
+                    logger.info("Closing stale oxd client {}", client);
+                    client.close();
+                }
+            }, CLIENT_CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //Shutting down, see close
+            if (staleClients.remove(client)) {
+                client.close();
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,185 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An immutable, point-in-time copy of the parameters held by {@link OxdConfig} (or by the definition of a {@link Tenant}).
+ * Space-separated values (scopes, acrs, etc.) are split once when the snapshot is created so that API operations can
+ * pass them along as is.
+ * <p>Instances are published by {@link OxdConfig#getSettings()} and {@link Tenant#getSettings()}, and can be safely
+ * shared among threads.</p>
+ *
+ * @author jgomer
+ */
+public final class OxdSettings {
+
+    /**
+     * Names of the properties holding the output of a registration
+     */
+    static final String[] REGISTRATION_PROPERTIES = { "oxdId", "clientId", "clientSecret", "clientName" };
+
+    private static final Pattern SEPARATOR = Pattern.compile("\\s+");
+
+    private final long version;
+
+    private final String host;
+    private final int port;
+    private final boolean trustAllClient;
+
+    private final String opHost;
+    private final String redirectUri;
+    private final String postLogoutUri;
+    private final List<String> redirectUris;
+    private final List<String> postLogoutUris;
+    private final List<String> grantTypes;
+    private final List<String> acrValues;
+    private final List<String> scopes;
+
+    private final String oxdId;
+    private final String clientId;
+    private final String clientSecret;
+    private final String clientName;
+
+    OxdSettings(OxdConfig config, long version) {
+
+        this.version = version;
+
+        host = config.getHost();
+        port = config.getPort();
+        trustAllClient = config.isTrustAllClient();
+
+        opHost = config.getOpHost();
+        redirectUri = config.getRedirectUri();
+        postLogoutUri = config.getPostLogoutUri();
+        redirectUris = split(redirectUri);
+        postLogoutUris = split(postLogoutUri);
+        grantTypes = split(config.getGrantTypes());
+        acrValues = split(config.getAcrValues());
+        scopes = split(config.getScopes());
+
+        oxdId = config.getOxdId();
+        clientId = config.getClientId();
+        clientSecret = config.getClientSecret();
+        clientName = config.getClientName();
+
+    }
+
+    /**
+     * Creates a snapshot out of properties named as the fields of {@link OxdConfig}
+     */
+    OxdSettings(Properties props, long version) {
+
+        this.version = version;
+
+        host = props.getProperty("host");
+        port = Integer.parseInt(props.getProperty("port", "0"));
+        trustAllClient = Boolean.parseBoolean(props.getProperty("trustAllClient"));
+
+        opHost = props.getProperty("opHost");
+        redirectUri = props.getProperty("redirectUri");
+        postLogoutUri = props.getProperty("postLogoutUri");
+        redirectUris = split(redirectUri);
+        postLogoutUris = split(postLogoutUri);
+        grantTypes = split(props.getProperty("grantTypes"));
+        acrValues = split(props.getProperty("acrValues"));
+        scopes = split(props.getProperty("scopes"));
+
+        oxdId = props.getProperty("oxdId");
+        clientId = props.getProperty("clientId");
+        clientSecret = props.getProperty("clientSecret");
+        clientName = props.getProperty("clientName");
+
+    }
+
+    private static List<String> split(String value) {
+
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Stream.of(SEPARATOR.split(value.trim())).collect(Collectors.toList()));
+
+    }
+
+    @Override
+    public String toString() {
+        return "[version=" + version + ", opHost=" + opHost + ", host=" + host + ", port=" + port + ", oxdId=" + oxdId + "]";
+    }
+
+    /**
+     * @return A number that increases every time a new snapshot is published
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isTrustAllClient() {
+        return trustAllClient;
+    }
+
+    public String getOpHost() {
+        return opHost;
+    }
+
+    public String getRedirectUri() {
+        return redirectUri;
+    }
+
+    public String getPostLogoutUri() {
+        return postLogoutUri;
+    }
+
+    public List<String> getRedirectUris() {
+        return redirectUris;
+    }
+
+    public List<String> getPostLogoutUris() {
+        return postLogoutUris;
+    }
+
+    public List<String> getGrantTypes() {
+        return grantTypes;
+    }
+
+    public List<String> getAcrValues() {
+        return acrValues;
+    }
+
+    public List<String> getScopes() {
+        return scopes;
+    }
+
+    public String getOxdId() {
+        return oxdId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getClientSecret() {
+        return clientSecret;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.gluu.oxd.client.ClientInterface;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread-safe network client to a single oxd-server location backed by a pool of keep-alive connections. Instances
+ * are meant to be built once and shared by all requests until the location or trust settings change.
+ * <p>Pool sizing and timeouts can be tuned by means of the Java system properties listed in the README file.</p>
+ *
+ * @author jgomer
+ */
+final class PooledClient implements AutoCloseable {
+
+    private static final int POOL_SIZE = Integer.getInteger("oxd.client.pool-size", 32);
+    private static final long CONNECTION_TTL_SECONDS = Long.getLong("oxd.client.connection-ttl", 300L);
+    private static final long CONNECT_TIMEOUT_MILLIS = Long.getLong("oxd.client.connect-timeout", 5000L);
+    private static final long READ_TIMEOUT_MILLIS = Long.getLong("oxd.client.read-timeout", 30000L);
+
+    private final String host;
+    private final int port;
+    private final boolean trustAll;
+
+    private final ResteasyClient rsClient;
+    private final ClientInterface clientInterface;
+
+    private PooledClient(String host, int port, boolean trustAll) {
+
+        this.host = host;
+        this.port = port;
+        this.trustAll = trustAll;
+
+        ResteasyClientBuilder builder = new ResteasyClientBuilder()
+                .connectionPoolSize(POOL_SIZE)
+                .maxPooledPerRoute(POOL_SIZE)
+                .connectionTTL(CONNECTION_TTL_SECONDS, TimeUnit.SECONDS)
+                .establishConnectionTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .socketTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (trustAll) {
+            builder.disableTrustManager().hostnameVerification(ResteasyClientBuilder.HostnameVerificationPolicy.ANY);
+        }
+        rsClient = builder.build();
+        clientInterface = rsClient.target(getTargetHost(host, port)).proxy(ClientInterface.class);
+
+    }
+
+    /**
+     * Builds a new pooled client pointing to the oxd-server location given.
+     *
+     * @param host     oxd-server host name
+     * @param port     oxd-server port
+     * @param trustAll Whether any server certificate should be accepted
+     * @return A new client instance
+     */
+    static PooledClient create(String host, int port, boolean trustAll) {
+        return new PooledClient(host, port, trustAll);
+    }
+
+    /**
+     * Determines whether this client was built for the location and trust settings passed.
+     *
+     * @return True if this client can be reused for the settings given, false otherwise
+     */
+    boolean matches(String host, int port, boolean trustAll) {
+        return this.port == port && this.trustAll == trustAll && (this.host == null ? host == null : this.host.equals(host));
+    }
+
+    ClientInterface getClientInterface() {
+        return clientInterface;
+    }
+
+    ResteasyClient getResteasyClient() {
+        return rsClient;
+    }
+
+    /**
+     * Releases all pooled connections. Calls in progress using this client may fail after this method returns.
+     */
+    @Override
+    public void close() {
+        rsClient.close();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getTargetHost(host, port) + ", trustAll=" + trustAll + "]";
+    }
+
+    static String getTargetHost(String host, int port) {
+        return "https://" + host + ":" + port;
+    }
+
+}
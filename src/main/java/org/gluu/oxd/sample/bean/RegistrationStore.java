@@ -0,0 +1,124 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Persists the output of registrations in files readable only by their owner, along with a fingerprint of the settings
+ * each registration was made with, so it can be reused after a restart as long as settings are unchanged.
+ *
+ * @author jgomer
+ */
+final class RegistrationStore {
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+
+    private static final Logger LOGGER = LogManager.getLogger(RegistrationStore.class);
+
+    private RegistrationStore() {
+    }
+
+    /**
+     * Computes a digest of the settings a registration depends on
+     */
+    static String fingerprint(String... values) {
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(String.join("\n", values).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            //Every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+
+    }
+
+    /**
+     * Saves the output of a registration. The file is written under a temporary name and then moved in place, so
+     * readers never find it half-written.
+     * @param registration Values of {@link OxdSettings#REGISTRATION_PROPERTIES} (null values are skipped)
+     */
+    static void store(Path file, String fingerprint, String... registration) throws IOException {
+
+        Properties props = new Properties();
+        props.setProperty("fingerprint", fingerprint);
+        for (int i = 0; i < OxdSettings.REGISTRATION_PROPERTIES.length; i++) {
+            if (registration[i] != null) {
+                props.setProperty(OxdSettings.REGISTRATION_PROPERTIES[i], registration[i]);
+            }
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        String prefix = file.getFileName().toString();
+        Path tmp = isPosix(dir) ? Files.createTempFile(dir, prefix, ".tmp", PosixFilePermissions.asFileAttribute(OWNER_ONLY))
+                : Files.createTempFile(dir, prefix, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                props.store(out, "oxd-sample-java registration, do not share");
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.info("Saved registration to {}", file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+    }
+
+    /**
+     * Loads the output of a previous registration if it was made with the settings whose fingerprint is passed. Files
+     * that can be read or written by users other than the owner are ignored.
+     * @return The registration properties, or null if no usable registration was found
+     */
+    static Properties restore(Path file, String fingerprint) {
+
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            if (isPosix(file) && !OWNER_ONLY.containsAll(Files.getPosixFilePermissions(file))) {
+                LOGGER.warn("Ignoring {}: it is accessible to other users", file);
+                return null;
+            }
+
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                props.load(in);
+            }
+            if (!fingerprint.equals(props.getProperty("fingerprint"))) {
+                LOGGER.info("Settings changed since the registration stored in {} was made", file);
+                return null;
+            }
+            return props.getProperty("oxdId", "").isEmpty() ? null : props;
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            return null;
+        }
+
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * An OP/client pair the sample flow can be run against. Every tenant has its own settings snapshot, oxd network client,
+ * and client token, so tenants do not interfere with each other.
+ * <p>The default tenant is backed by {@link OxdConfig} (that is, the settings page). The others are defined at runtime
+ * through {@link TenantRegistry}; their settings are published here after every registration.</p>
+ *
+ * @author jgomer
+ */
+public final class Tenant {
+
+    public static final String DEFAULT_ID = "default";
+
+    private final String id;
+    private final Set<String> hosts;
+    private final Properties definition;
+
+    //Non-null for the default tenant only
+    private final Supplier<OxdSettings> source;
+    private final AtomicReference<OxdSettings> settings = new AtomicReference<>();
+
+    private final ClientTokenCache clientTokenCache;
+    private final AtomicBoolean registering = new AtomicBoolean();
+
+    //Written while holding OxdService's lock
+    private volatile OxdBalancer balancer;
+
+    /**
+     * Creates the default tenant
+     */
+    Tenant(Supplier<OxdSettings> source, ClientTokenCache clientTokenCache) {
+
+        this.id = DEFAULT_ID;
+        this.hosts = Collections.emptySet();
+        this.definition = null;
+        this.source = source;
+        this.clientTokenCache = clientTokenCache;
+
+    }
+
+    /**
+     * Creates a tenant out of a definition (see {@link TenantRegistry#put(String, Properties)}), which already contains
+     * the inherited values
+     */
+    Tenant(String id, Set<String> hosts, Properties definition, ClientTokenCache clientTokenCache) {
+
+        this.id = id;
+        this.hosts = Collections.unmodifiableSet(hosts);
+        this.definition = definition;
+        this.source = null;
+        this.clientTokenCache = clientTokenCache;
+        publish(null);
+
+    }
+
+    @Override
+    public String toString() {
+        return "[id=" + id + ", hosts=" + hosts + ", settings=" + getSettings() + "]";
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isDefault() {
+        return source != null;
+    }
+
+    /**
+     * @return Host names (as sent by browsers) that select this tenant
+     */
+    public Set<String> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Returns the latest published snapshot of this tenant's settings.
+     * @return An {@link OxdSettings} instance
+     */
+    public OxdSettings getSettings() {
+        return source == null ? settings.get() : source.get();
+    }
+
+    /**
+     * Tells whether a registration is available, that is, whether the sample flow can be used with this tenant.
+     */
+    public boolean isReady() {
+        return StringUtils.isNotEmpty(getSettings().getOxdId());
+    }
+
+    /**
+     * Tells whether a background registration of this tenant is in progress.
+     */
+    public boolean isRegistering() {
+        return registering.get();
+    }
+
+    AtomicBoolean getRegisteringFlag() {
+        return registering;
+    }
+
+    ClientTokenCache getClientTokenCache() {
+        return clientTokenCache;
+    }
+
+    OxdBalancer getBalancer() {
+        return balancer;
+    }
+
+    void setBalancer(OxdBalancer balancer) {
+        this.balancer = balancer;
+    }
+
+    /**
+     * Publishes a new snapshot made of the definition of this tenant plus the output of a registration
+     * @param registration Properties <code>oxdId</code>, <code>clientId</code>, <code>clientSecret</code>, and
+     *                     <code>clientName</code>, or null to publish the definition alone
+     * @return The snapshot just published
+     */
+    synchronized OxdSettings publish(Properties registration) {
+
+        if (source != null) {
+            throw new IllegalStateException("Settings of the default tenant are published by OxdConfig");
+        }
+        Properties props = new Properties();
+        props.putAll(definition);
+        if (registration != null) {
+            for (String name : OxdSettings.REGISTRATION_PROPERTIES) {
+                String value = registration.getProperty(name);
+                if (value != null) {
+                    props.setProperty(name, value);
+                }
+            }
+        }
+
+        OxdSettings previous = settings.get();
+        OxdSettings snapshot = new OxdSettings(props, previous == null ? 1 : previous.getVersion() + 1);
+        settings.set(snapshot);
+        return snapshot;
+
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Holds the tenants the sample flow can be run against, and selects the one a request is meant for: either by the host
+ * name the browser used or by the tenant id found in the request path (see
+ * {@link org.gluu.oxd.sample.filter.TenantFilter}). Lookups are single hash map reads and take no locks.
+ * <p>Tenants can be added, replaced, and removed at runtime with {@link #put(String, Properties)} and
+ * {@link #remove(String)}. When system property <code>oxd.sample.tenants-dir</code> is set, every
+ * <code>&lt;id&gt;.conf</code> file of that directory defines a tenant, and the directory is watched so tenants follow
+ * the files as they are created, modified, or deleted. In this case the output of registrations is also persisted there
+ * (as <code>&lt;id&gt;.registration</code>, see {@link RegistrationStore}).</p>
+ * <p>Definitions use the property names of the settings file, plus <code>hosts</code>: a comma-separated list of host
+ * names that select the tenant. Only <code>opHost</code> is required; oxd-server location, scopes, acr values and
+ * grant types not given are inherited from the default tenant, and redirect URIs are built from the first host.</p>
+ *
+ * @author jgomer
+ */
+public final class TenantRegistry {
+
+    private static final String TENANTS_DIR = System.getProperty("oxd.sample.tenants-dir");
+    private static final String DEFINITION_SUFFIX = ".conf";
+    private static final String REGISTRATION_SUFFIX = ".registration";
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private final OxdConfig config;
+    private final Tenant defaultTenant;
+    private final Supplier<ClientTokenCache> tokenCaches;
+    private final Consumer<Tenant> onAdded;
+    private final Consumer<Tenant> onRemoved;
+
+    //Both maps are written while holding this object's lock
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Map<String, Tenant> byHost = new ConcurrentHashMap<>();
+
+    //Contents of tenant files last applied, so unchanged files are not reloaded
+    private final Map<String, Properties> fileProps = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    /**
+     * @param tokenCaches Creates the client token cache of every tenant
+     * @param onAdded     Called when a tenant is added or replaced and no stored registration could be reused for it
+     * @param onRemoved   Called when a tenant is removed or replaced, so its resources can be released
+     */
+    TenantRegistry(OxdConfig config, Tenant defaultTenant, Supplier<ClientTokenCache> tokenCaches,
+                   Consumer<Tenant> onAdded, Consumer<Tenant> onRemoved) {
+
+        this.config = config;
+        this.defaultTenant = defaultTenant;
+        this.tokenCaches = tokenCaches;
+        this.onAdded = onAdded;
+        this.onRemoved = onRemoved;
+        tenants.put(defaultTenant.getId(), defaultTenant);
+
+    }
+
+    public Tenant getDefault() {
+        return defaultTenant;
+    }
+
+    /**
+     * @param id A tenant id (null denotes the default tenant)
+     * @return The tenant or null if there is no such tenant
+     */
+    public Tenant get(String id) {
+        return id == null ? defaultTenant : tenants.get(id);
+    }
+
+    /**
+     * @param host A host name, as in {@link javax.servlet.ServletRequest#getServerName()}
+     * @return The tenant selected by the host name passed or null if no tenant claims it
+     */
+    public Tenant forHost(String host) {
+        return byHost.isEmpty() || host == null ? null : byHost.get(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return All tenants currently defined, including the default one
+     */
+    public Collection<Tenant> getTenants() {
+        return Collections.unmodifiableCollection(tenants.values());
+    }
+
+    /**
+     * Tells whether a tenant is still in use, that is, it has not been removed or replaced.
+     */
+    public boolean contains(Tenant tenant) {
+        return tenants.get(tenant.getId()) == tenant;
+    }
+
+    /**
+     * Adds a tenant or replaces an existing one. A registration previously persisted for the same definition is reused;
+     * otherwise the tenant has to register (see the <code>onAdded</code> callback).
+     *
+     * @param id         Tenant id: up to 64 letters, digits, hyphens, or underscores
+     * @param definition Settings of the tenant (see class description)
+     * @return The tenant created
+     * @throws IllegalArgumentException If the id or definition is not valid, or a host is already claimed by another tenant
+     */
+    public Tenant put(String id, Properties definition) {
+
+        if (!ID_PATTERN.matcher(id).matches() || Tenant.DEFAULT_ID.equals(id)) {
+            throw new IllegalArgumentException("Invalid tenant id " + id);
+        }
+        Set<String> hosts = new LinkedHashSet<>();
+        Stream.of(definition.getProperty("hosts", "").split(",")).map(String::trim).filter(h -> !h.isEmpty())
+                .forEach(h -> hosts.add(h.toLowerCase(Locale.ROOT)));
+        Properties props = inherit(definition, hosts);
+        if (StringUtils.isEmpty(props.getProperty("opHost"))) {
+            throw new IllegalArgumentException("Tenant " + id + " has no opHost");
+        }
+
+        Tenant tenant = new Tenant(id, hosts, props, tokenCaches.get());
+        Tenant previous;
+        synchronized (this) {
+            for (String host : hosts) {
+                Tenant owner = byHost.get(host);
+                if (owner != null && !owner.getId().equals(id)) {
+                    throw new IllegalArgumentException("Host " + host + " already belongs to tenant " + owner.getId());
+                }
+            }
+            previous = tenants.put(id, tenant);
+            if (previous != null) {
+                previous.getHosts().forEach(host -> byHost.remove(host, previous));
+            }
+            hosts.forEach(host -> byHost.put(host, tenant));
+        }
+        logger.info("{} tenant {}", previous == null ? "Added" : "Replaced", tenant);
+
+        if (previous != null) {
+            onRemoved.accept(previous);
+        }
+        Properties registration = TENANTS_DIR == null ? null : RegistrationStore.restore(registrationFile(id), fingerprint(tenant));
+        if (registration == null) {
+            onAdded.accept(tenant);
+        } else {
+            tenant.publish(registration);
+            logger.info("Reusing stored registration of tenant {}", id);
+        }
+        return tenant;
+
+    }
+
+    /**
+     * Removes a tenant. Flows bound to it will not be able to continue.
+     * @return True if the tenant existed
+     */
+    public boolean remove(String id) {
+
+        Tenant previous;
+        synchronized (this) {
+            previous = Tenant.DEFAULT_ID.equals(id) ? null : tenants.remove(id);
+            if (previous != null) {
+                previous.getHosts().forEach(host -> byHost.remove(host, previous));
+            }
+        }
+        if (previous == null) {
+            return false;
+        }
+        logger.info("Removed tenant {}", id);
+        onRemoved.accept(previous);
+        return true;
+
+    }
+
+    /**
+     * Persists the output of the latest registration of a tenant, if a tenants directory is in use
+     */
+    void storeRegistration(Tenant tenant) throws IOException {
+
+        if (TENANTS_DIR != null) {
+            OxdSettings settings = tenant.getSettings();
+            RegistrationStore.store(registrationFile(tenant.getId()), fingerprint(tenant), settings.getOxdId(),
+                    settings.getClientId(), settings.getClientSecret(), settings.getClientName());
+        }
+
+    }
+
+    /**
+     * Loads the tenants defined in the tenants directory and starts watching it, if such directory was supplied
+     */
+    void start() {
+
+        if (TENANTS_DIR == null) {
+            return;
+        }
+        Path dir = Paths.get(TENANTS_DIR);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + DEFINITION_SUFFIX)) {
+            for (Path file : files) {
+                load(file);
+            }
+        } catch (IOException e) {
+            logger.error("Tenants directory could not be read: {}", e.getMessage());
+            return;
+        }
+        watchTenantsDir(dir);
+
+    }
+
+    void close() {
+
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+
+    }
+
+    private Properties inherit(Properties definition, Set<String> hosts) {
+
+        OxdSettings defaults = defaultTenant.getSettings();
+        Properties props = new Properties();
+        props.setProperty("host", StringUtils.defaultString(defaults.getHost()));
+        props.setProperty("port", Integer.toString(defaults.getPort()));
+        props.setProperty("trustAllClient", Boolean.toString(defaults.isTrustAllClient()));
+        props.setProperty("scopes", String.join(" ", defaults.getScopes()));
+        props.setProperty("acrValues", String.join(" ", defaults.getAcrValues()));
+        props.setProperty("grantTypes", String.join(" ", defaults.getGrantTypes()));
+
+        if (definition.getProperty("redirectUri") == null || definition.getProperty("postLogoutUri") == null) {
+            String root = (hosts.isEmpty() ? OxdConfig.getServerRoot() : OxdConfig.getServerRoot(hosts.iterator().next()))
+                    + config.getContextPath() + OxdConfig.URL_PREFIX;
+            props.setProperty("redirectUri", root + "/tokens.xhtml");
+            props.setProperty("postLogoutUri", root + "/post-logout.xhtml");
+        }
+
+        for (String name : definition.stringPropertyNames()) {
+            if (!name.equals("hosts")) {
+                props.setProperty(name, definition.getProperty(name).trim());
+            }
+        }
+        //The output of registrations is never taken from a definition
+        Stream.of(OxdSettings.REGISTRATION_PROPERTIES).forEach(props::remove);
+        return props;
+
+    }
+
+    private String fingerprint(Tenant tenant) {
+
+        OxdSettings settings = tenant.getSettings();
+        return RegistrationStore.fingerprint(settings.getHost(), Integer.toString(settings.getPort()), settings.getOpHost(),
+                settings.getRedirectUri(), settings.getPostLogoutUri(), String.join(" ", settings.getScopes()),
+                String.join(" ", settings.getAcrValues()), String.join(" ", settings.getGrantTypes()));
+
+    }
+
+    private Path registrationFile(String id) {
+        return Paths.get(TENANTS_DIR, id + REGISTRATION_SUFFIX);
+    }
+
+    private static String idOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - DEFINITION_SUFFIX.length());
+    }
+
+    private void load(Path file) {
+
+        String id = idOf(file);
+        try {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                props.load(in);
+            }
+            if (props.equals(fileProps.get(id))) {
+                return;
+            }
+            put(id, props);
+            fileProps.put(id, props);
+        } catch (Exception e) {
+            //The file may be in the middle of being written, a subsequent event will bring the final contents
+            logger.warn("Tenant {} could not be loaded from {}: {}", id, file, e.getMessage());
+        }
+
+    }
+
+    /**
+     * Starts a daemon thread that adds, replaces, or removes tenants as their files change
+     */
+    private void watchTenantsDir(Path dir) {
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.warn("Tenants directory will not be watched for changes: {}", e.getMessage());
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        Object context = event.context();
+                        if (!(context instanceof Path) || !context.toString().endsWith(DEFINITION_SUFFIX)) {
+                            continue;
+                        }
+                        Path file = dir.resolve((Path) context);
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            fileProps.remove(idOf(file));
+                            remove(idOf(file));
+                        } else {
+                            load(file);
+                        }
+                    }
+                    key.reset();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                logger.debug("Stopped watching tenants directory");
+            }
+        }, "oxd-tenants-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the refresh of access tokens held by flows ahead of their expiration. All flows share the scheduler of
+ * {@link OxdService}, so no thread is dedicated to any session.
+ * <p>Refreshes take place between <code>oxd.sample.token-refresh.margin</code> and that plus
+ * <code>oxd.sample.token-refresh.jitter</code> seconds before expiration, chosen at random so that tokens issued at
+ * the same time (e.g. after a burst of logins) are not refreshed at once. For tokens too short-lived for such margin,
+ * the refresh takes place between a half and three quarters of the remaining lifetime.</p>
+ * <p>A cancelled {@link Handle} releases the task it was given right away, so flows of ended sessions are not retained
+ * until the time their refresh was due.</p>
+ *
+ * @author jgomer
+ */
+final class TokenRefresher {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("oxd.sample.token-refresh", "true"));
+
+    private static final long MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("oxd.sample.token-refresh.margin", 60L));
+    private static final long JITTER_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("oxd.sample.token-refresh.jitter", 30L));
+
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    TokenRefresher(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Schedules a refresh. The task runs in the scheduler thread, so it must only start the actual (asynchronous) call.
+     *
+     * @param expiresAt Time (in milliseconds since the epoch) at which the token expires
+     * @param task      Starts the refresh
+     * @return A handle to cancel the refresh, or null if the token has expired already or the app is shutting down
+     */
+    Handle schedule(long expiresAt, Runnable task) {
+
+        long remaining = expiresAt - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return null;
+        }
+        long lead = MARGIN_MILLIS + ThreadLocalRandom.current().nextLong(JITTER_MILLIS + 1);
+        if (lead > remaining / 2) {
+            lead = remaining / 4 + ThreadLocalRandom.current().nextLong(remaining / 4 + 1);
+        }
+
+        Handle handle = new Handle(task);
+        pending.incrementAndGet();
+        try {
+            handle.future = scheduler.schedule(handle::fire, remaining - lead, TimeUnit.MILLISECONDS);
+            return handle;
+        } catch (RejectedExecutionException e) {
+            //Application is shutting down
+            handle.release();
+            return null;
+        }
+
+    }
+
+    /**
+     * @return Number of refreshes scheduled and not yet due or cancelled
+     */
+    int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * A scheduled refresh.
+     */
+    final class Handle {
+
+        private volatile Runnable task;
+        private volatile ScheduledFuture<?> future;
+
+        private Handle(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Cancels the refresh if it has not started yet
+         */
+        void cancel() {
+
+            if (release() != null) {
+                ScheduledFuture<?> scheduled = future;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                }
+            }
+
+        }
+
+        private void fire() {
+
+            Runnable current = release();
+            if (current != null) {
+                current.run();
+            }
+
+        }
+
+        private synchronized Runnable release() {
+
+            Runnable current = task;
+            if (current != null) {
+                task = null;
+                pending.decrementAndGet();
+            }
+            return current;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of user info responses indexed by (a hash of) the access token used to obtain them.
+ * <p>Entries live for <code>oxd.sample.userinfo-cache.ttl</code> seconds at most, and never beyond the expiration of
+ * the access token. Concurrent lookups of the same token while the response is being retrieved wait for that single
+ * request instead of issuing their own. Failed lookups are not cached.</p>
+ * <p>Once full, the cache is brought down to 90% of its capacity in one go, dropping entries in order of expiration
+ * (which also drops every expired one). Entries are kept indexed by expiration, so an eviction only touches the entries
+ * it removes, and its cost is paid once every so many misses and not on every miss.</p>
+ *
+ * @author jgomer
+ */
+public final class UserInfoCache {
+
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("oxd.sample.userinfo-cache.ttl", 30L));
+    private static final int MAX_SIZE = Integer.getInteger("oxd.sample.userinfo-cache.size", 1000);
+
+    //Size left after an eviction
+    private static final int LOW_WATER = MAX_SIZE - Math.max(MAX_SIZE / 10, 1);
+
+    //Tie-breaker for entries expiring at the same instant
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    //The entries of the map, soonest to expire first
+    private final NavigableSet<Entry> byExpiration = new ConcurrentSkipListSet<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    //Misses finding the cache full leave eviction to the one thread already doing it
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    UserInfoCache() {
+    }
+
+    /**
+     * Returns the user info associated to an access token.
+     *
+     * @param accessToken   Access token
+     * @param maxTtlNanos   Remaining lifetime of the access token in nanoseconds (a negative value means unknown)
+     * @param loader        Retrieves the user info when not cached
+     * @return User claims
+     * @throws Exception If the loader failed
+     */
+    JsonNode get(String accessToken, long maxTtlNanos, Callable<JsonNode> loader) throws Exception {
+
+        long ttl = maxTtlNanos < 0 ? TTL_NANOS : Math.min(TTL_NANOS, maxTtlNanos);
+        if (ttl <= 0) {
+            misses.increment();
+            return loader.call();
+        }
+
+        String key = hash(accessToken);
+        long now = System.nanoTime();
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt - now > 0) {
+            hits.increment();
+            return await(entry);
+        }
+
+        Entry mine = new Entry(key, now + ttl);
+        Entry winner = entry == null ? entries.putIfAbsent(key, mine) : (entries.replace(key, entry, mine) ? null : entries.get(key));
+        if (winner != null && winner != mine) {
+            //Another thread is retrieving (or has just retrieved) this same user info
+            hits.increment();
+            return await(winner);
+        }
+        if (entry != null && winner == null) {
+            byExpiration.remove(entry);
+        }
+        byExpiration.add(mine);
+
+        misses.increment();
+        if (entries.size() > MAX_SIZE && evicting.compareAndSet(false, true)) {
+            try {
+                evict(now);
+            } finally {
+                evicting.set(false);
+            }
+        }
+        try {
+            JsonNode value = loader.call();
+            mine.future.complete(value);
+            return value;
+        } catch (Exception e) {
+            if (entries.remove(key, mine)) {
+                byExpiration.remove(mine);
+            }
+            mine.future.completeExceptionally(e);
+            throw e;
+        }
+
+    }
+
+    /**
+     * Returns the user info associated to an access token only if it is already in the cache.
+     *
+     * @param accessToken Access token
+     * @return User claims or null
+     */
+    JsonNode getIfPresent(String accessToken) {
+
+        Entry entry = entries.get(hash(accessToken));
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0 && entry.future.isDone()
+                && !entry.future.isCompletedExceptionally()) {
+            hits.increment();
+            return entry.future.join();
+        }
+        return null;
+
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Drops entries in order of expiration while any is expired or the cache is above the low-water mark.
+     */
+    private void evict(long now) {
+
+        Entry first;
+        while ((first = byExpiration.pollFirst()) != null) {
+            if (entries.size() <= LOW_WATER && first.expiresAt - now > 0) {
+                byExpiration.add(first);
+                break;
+            }
+            if (entries.remove(first.key, first)) {
+                evictions.increment();
+            }
+        }
+
+    }
+
+    private static JsonNode await(Entry entry) throws Exception {
+
+        try {
+            return entry.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+
+    }
+
+    private static String hash(String accessToken) {
+        byte[] digest = SHA256.get().digest(accessToken.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+
+        private final CompletableFuture<JsonNode> future = new CompletableFuture<>();
+        private final String key;
+        private final long expiresAt;
+        private final long sequence = SEQUENCE.incrementAndGet();
+
+        private Entry(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int c = Long.signum(expiresAt - other.expiresAt);
+            return c == 0 ? Long.compare(sequence, other.sequence) : c;
+        }
+
+    }
+
+}
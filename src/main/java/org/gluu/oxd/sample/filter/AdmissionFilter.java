@@ -0,0 +1,235 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.filter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.sample.bean.FlowManager;
+import org.gluu.oxd.sample.metrics.Counter;
+import org.gluu.oxd.sample.metrics.Metrics;
+import org.gluu.oxd.sample.resilience.TokenBucket;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A servlet filter that rate-limits the pages of the sample flow, so a burst of clients starting flows (e.g. bots
+ * hitting the first page) cannot flood oxd-server at the expense of users already in the middle of a login. Requests
+ * draw tokens from a {@link TokenBucket} of their client IP and from a global one:
+ * <ul>
+ * <li>Requests that start a flow (those to the first page of the flow or to <code>/tenant/*</code>, and those of
+ * clients having no flow yet) leave a share of every bucket (<code>oxd.sample.admission.reserve</code>) untouched</li>
+ * <li>Requests of flows in progress (e.g. the token exchange or the user info retrieval) may use all tokens</li>
+ * </ul>
+ * <p>Requests that find no tokens get a plain 429 response with a <code>Retry-After</code> header; those rejected by
+ * the global bucket give back the token taken from their client's. This filter must precede all others: a rejected
+ * request never reaches oxd, and no session is created for it. JSON payloads of the flow are not limited, since they
+ * are served from memory.</p>
+ * <p>Buckets of client IPs are dropped once refilled, and at most <code>oxd.sample.admission.max-clients</code> are
+ * kept; requests of new clients beyond such number are only limited by the global bucket.</p>
+ * @author jgomer
+ */
+public class AdmissionFilter implements Filter {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("oxd.sample.admission", "true"));
+
+    private static final double RATE = Double.parseDouble(System.getProperty("oxd.sample.admission.rate", "100"));
+    private static final int BURST = Integer.getInteger("oxd.sample.admission.burst", 200);
+    private static final double CLIENT_RATE = Double.parseDouble(System.getProperty("oxd.sample.admission.client-rate", "2"));
+    private static final int CLIENT_BURST = Integer.getInteger("oxd.sample.admission.client-burst", 20);
+    private static final double RESERVE = Double.parseDouble(System.getProperty("oxd.sample.admission.reserve", "0.5"));
+    private static final int MAX_CLIENTS = Integer.getInteger("oxd.sample.admission.max-clients", 100000);
+    private static final String CLIENT_IP_HEADER = System.getProperty("oxd.sample.admission.client-ip-header");
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final byte[] REJECTION = "Too many requests\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String START_PAGE = "/oidc/" + FlowManager.Stage.PRE_AUTHZ_URL.getUrl();
+    private static final String TENANT_PREFIX = "/tenant/";
+    private static final String PAYLOADS_PATH = "/oidc/json";
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private TokenBucket global;
+    private int globalReserve;
+    private int clientReserve;
+
+    private final ConcurrentMap<String, TokenBucket> clients = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    private Counter startsAdmitted;
+    private Counter flowsAdmitted;
+    private Counter startsRejectedClient;
+    private Counter startsRejectedGlobal;
+    private Counter flowsRejectedClient;
+    private Counter flowsRejectedGlobal;
+
+    public void init(FilterConfig filterConfig) {
+
+        if (!ENABLED) {
+            logger.info("Admission control disabled");
+            return;
+        }
+        global = new TokenBucket(RATE, BURST);
+        //Flow starts always get some tokens when the bucket is full
+        globalReserve = reserve(BURST);
+        clientReserve = reserve(CLIENT_BURST);
+
+        String admitted = "flow_admissions_total";
+        String admittedHelp = "Requests of the sample flow admitted by rate limiting";
+        startsAdmitted = Metrics.counter(admitted, admittedHelp, "request", "start");
+        flowsAdmitted = Metrics.counter(admitted, admittedHelp, "request", "in-progress");
+
+        String rejected = "flow_admission_rejections_total";
+        String rejectedHelp = "Requests of the sample flow rejected by rate limiting, per bucket exhausted";
+        startsRejectedClient = Metrics.counter(rejected, rejectedHelp, "request", "start", "limit", "client");
+        startsRejectedGlobal = Metrics.counter(rejected, rejectedHelp, "request", "start", "limit", "global");
+        flowsRejectedClient = Metrics.counter(rejected, rejectedHelp, "request", "in-progress", "limit", "client");
+        flowsRejectedGlobal = Metrics.counter(rejected, rejectedHelp, "request", "in-progress", "limit", "global");
+
+        Metrics.gauge("flow_admission_clients", "Client IPs whose rate limiting bucket is being tracked", clients::size);
+        logger.info("Admission control enabled: {} requests/s (burst {}) overall, {} requests/s (burst {}) per client",
+                RATE, BURST, CLIENT_RATE, CLIENT_BURST);
+
+    }
+
+    public void destroy() { }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        HttpServletRequest req = (HttpServletRequest) request;
+        if (global == null || req.getServletPath().startsWith(PAYLOADS_PATH)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        boolean start = isStart(req);
+        TokenBucket client = clientBucket(clientIp(req));
+        int reserve = start ? clientReserve : 0;
+
+        if (client != null && !client.tryAcquire(reserve)) {
+            (start ? startsRejectedClient : flowsRejectedClient).increment();
+            reject((HttpServletResponse) response, client.getWaitNanos(reserve));
+            return;
+        }
+        reserve = start ? globalReserve : 0;
+        if (!global.tryAcquire(reserve)) {
+            //The request is not served, so it does not count against its client
+            if (client != null) {
+                client.release();
+            }
+            (start ? startsRejectedGlobal : flowsRejectedGlobal).increment();
+            reject((HttpServletResponse) response, global.getWaitNanos(reserve));
+            return;
+        }
+        (start ? startsAdmitted : flowsAdmitted).increment();
+        chain.doFilter(request, response);
+
+    }
+
+    /**
+     * Tells whether a request may start a flow, judging only by its path and by whether it carries a session or flow
+     * cookie, so no session is created and no cookie decrypted. A forged cookie does not get a client past the bucket
+     * of its IP.
+     */
+    private boolean isStart(HttpServletRequest req) {
+
+        String path = req.getServletPath();
+        if (path.equals(START_PAGE) || path.startsWith(TENANT_PREFIX)) {
+            return true;
+        }
+        if (req.getSession(false) != null) {
+            return false;
+        }
+        if (StatelessFlowFilter.ENABLED && req.getCookies() != null) {
+            for (Cookie cookie : req.getCookies()) {
+                if (StatelessFlowFilter.COOKIE_NAME.equals(cookie.getName())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+
+    }
+
+    private String clientIp(HttpServletRequest req) {
+
+        if (CLIENT_IP_HEADER != null) {
+            String value = req.getHeader(CLIENT_IP_HEADER);
+            if (value != null) {
+                //The last address is the one added by the closest proxy, the only one that can be trusted
+                int comma = value.lastIndexOf(',');
+                return value.substring(comma + 1).trim();
+            }
+        }
+        return req.getRemoteAddr();
+
+    }
+
+    /**
+     * @return The bucket of a client IP, or null if too many clients are tracked
+     */
+    private TokenBucket clientBucket(String ip) {
+
+        TokenBucket bucket = clients.get(ip);
+        if (bucket == null) {
+            if (clients.size() >= MAX_CLIENTS && !sweep()) {
+                return null;
+            }
+            bucket = clients.computeIfAbsent(ip, k -> new TokenBucket(CLIENT_RATE, CLIENT_BURST));
+        }
+        return bucket;
+
+    }
+
+    /**
+     * Drops the buckets that are full again, at most once per second.
+     * @return Whether there is room for more buckets
+     */
+    private boolean sweep() {
+
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+            clients.values().removeIf(TokenBucket::isFull);
+            logger.debug("{} client buckets left after sweep", clients.size());
+        }
+        return clients.size() < MAX_CLIENTS;
+
+    }
+
+    private void reject(HttpServletResponse response, long waitNanos) throws IOException {
+
+        response.setStatus(SC_TOO_MANY_REQUESTS);
+        //Whole seconds, rounded up
+        long seconds = Math.max(TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1), 1);
+        response.setHeader("Retry-After", Long.toString(seconds));
+        response.setContentType("text/plain");
+        response.setContentLength(REJECTION.length);
+        response.getOutputStream().write(REJECTION);
+
+    }
+
+    private static int reserve(int burst) {
+        return Math.min((int) Math.round(burst * Math.min(Math.max(RESERVE, 0), 1)), burst - 1);
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.filter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.sample.bean.FlowManager;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A servlet filter that releases the request thread while the oxd call backing the page of the current flow stage is
+ * in progress. Once the call completes, the request is dispatched again so the page can be rendered without blocking.
+ * If the call takes too long, a 503 response is sent instead of a page whose getters would block on it again.
+ * <p>No call is started while the tenant of the flow is not registered yet (see {@link org.gluu.oxd.sample.bean.Tenant#isReady()}).</p>
+ * @author jgomer
+ */
+public class FlowAsyncFilter implements Filter {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("oxd.sample.await-timeout", 30L));
+
+    //Request attribute holding the call a request waited for
+    private static final String WORK = FlowAsyncFilter.class.getName() + ".work";
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    @Inject
+    private FlowManager flowManager;
+
+    public void init(FilterConfig filterConfig) { }
+
+    public void destroy() { }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        HttpServletRequest req = (HttpServletRequest) request;
+        CompletableFuture<?> work = null;
+
+        if (req.getDispatcherType() == DispatcherType.ASYNC) {
+            work = (CompletableFuture<?>) req.getAttribute(WORK);
+            if (work != null && !work.isDone()) {
+                //Dispatched upon timeout
+                HttpServletResponse resp = (HttpServletResponse) response;
+                resp.setHeader("Retry-After", "1");
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (req.getDispatcherType() == DispatcherType.REQUEST && req.isAsyncSupported() && "GET".equals(req.getMethod())
+                && flowManager.getTenant().isReady() && req.getServletPath().endsWith("/" + flowManager.getStage().getUrl())) {
+            work = flowManager.prepareStage();
+        }
+
+        if (work == null || work.isDone()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        req.setAttribute(WORK, work);
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(TIMEOUT_MILLIS);
+
+        AtomicBoolean dispatched = new AtomicBoolean();
+        Runnable dispatch = () -> {
+            if (dispatched.compareAndSet(false, true)) {
+                asyncContext.dispatch();
+            }
+        };
+        asyncContext.addListener(new AsyncListener() {
+            public void onComplete(AsyncEvent event) { }
+
+            public void onTimeout(AsyncEvent event) {
+                logger.warn("oxd call took too long, {} not rendered", req.getServletPath());
+                dispatch.run();
+            }
+
+            public void onError(AsyncEvent event) { }
+
+            public void onStartAsync(AsyncEvent event) { }
+        });
+        work.whenComplete((result, e) -> dispatch.run());
+
+    }
+
+}
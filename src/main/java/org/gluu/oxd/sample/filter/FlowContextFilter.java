@@ -0,0 +1,47 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.filter;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.gluu.oxd.sample.bean.FlowManager;
+
+import javax.inject.Inject;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet filter that puts the correlation id of the sample flow (see {@link FlowManager#getFlowId()}) in the logging
+ * {@link ThreadContext} while a request is processed, so every log line written on its behalf carries the id. oxd calls
+ * started meanwhile take the id along to the threads that run them.
+ * <p>It must follow the stateless flow and tenant filters, since both may switch the flow to a different one.</p>
+ * @author jgomer
+ */
+public class FlowContextFilter implements Filter {
+
+    @Inject
+    private FlowManager flowManager;
+
+    public void init(FilterConfig filterConfig) { }
+
+    public void destroy() { }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        ThreadContext.put(FlowManager.FLOW_ID, flowManager.getFlowId());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ThreadContext.remove(FlowManager.FLOW_ID);
+        }
+
+    }
+
+}
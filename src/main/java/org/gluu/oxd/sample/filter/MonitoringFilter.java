@@ -0,0 +1,91 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.filter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A servlet filter that restricts the monitoring endpoints of the app to local clients. Other addresses can be
+ * allowed with <code>oxd.sample.monitoring.allowed-addresses</code>, a comma-separated list of IP addresses, where
+ * <code>*</code> allows any client. Requests of other clients get a 403 response.
+ * <p>The address of the connection is checked (headers like <code>X-Forwarded-For</code> are not trusted), so when the
+ * app runs behind a reverse proxy, the proxy should not forward these paths.</p>
+ * @author jgomer
+ */
+public class MonitoringFilter implements Filter {
+
+    private static final String ALLOWED_ADDRESSES = System.getProperty("oxd.sample.monitoring.allowed-addresses", "");
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private boolean allowAll;
+    private Set<InetAddress> allowed = new HashSet<>();
+
+    public void init(FilterConfig filterConfig) {
+
+        for (String entry : ALLOWED_ADDRESSES.split(",")) {
+            entry = entry.trim();
+            if (entry.equals("*")) {
+                allowAll = true;
+            } else if (!entry.isEmpty()) {
+                InetAddress address = parse(entry);
+                if (address == null) {
+                    logger.warn("Ignoring {} in oxd.sample.monitoring.allowed-addresses: not an IP address", entry);
+                } else {
+                    allowed.add(address);
+                }
+            }
+        }
+
+    }
+
+    public void destroy() { }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        InetAddress client = parse(request.getRemoteAddr());
+        if (allowAll || (client != null && (client.isLoopbackAddress() || allowed.contains(client)))) {
+            chain.doFilter(request, response);
+        } else {
+            logger.debug("Monitoring request from {} refused", request.getRemoteAddr());
+            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_FORBIDDEN);
+        }
+
+    }
+
+    /**
+     * Parses an IP address literal, with no name resolution
+     *
+     * @return The address or null if the value is not an IP address
+     */
+    private static InetAddress parse(String value) {
+
+        if (value == null || !(value.indexOf(':') >= 0 || value.chars().allMatch(c -> c == '.' || Character.isDigit(c)))) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(value);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+
+    }
+
+}
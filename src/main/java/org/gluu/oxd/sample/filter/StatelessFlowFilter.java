@@ -0,0 +1,262 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.filter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.sample.bean.FlowManager;
+import org.gluu.oxd.sample.security.CookieSealer;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A servlet filter that keeps the state of the sample flow in an encrypted cookie, so any node of a cluster can serve
+ * any step of the flow without sticky sessions or session replication. It is only active when system property
+ * <code>oxd.sample.stateless</code> is true.
+ * <p>In this mode {@link FlowManager} is request scoped and no session is created. Before the request is processed, the
+ * state found in the cookie is imported into it (cookies carry the time they were issued, so nodes' clocks must be in
+ * sync). Afterwards, once any token exchange in progress is over, the cookie is re-issued if the state changed. The
+ * request thread is not held meanwhile: the response is completed asynchronously, with redirects and errors sent by
+ * the filter chain deferred until then. See {@link CookieSealer} for details about keys.</p>
+ * @author jgomer
+ */
+public class StatelessFlowFilter implements Filter {
+
+    public static final boolean ENABLED = Boolean.getBoolean("oxd.sample.stateless");
+
+    static final String COOKIE_NAME = "oxd_flow";
+    private static final long MAX_AGE_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("oxd.sample.flow-cookie.max-age", 3600L));
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("oxd.sample.await-timeout", 30L));
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private CookieSealer sealer;
+
+    @Inject
+    private FlowManager flowManager;
+
+    public void init(FilterConfig filterConfig) {
+        if (ENABLED) {
+            sealer = new CookieSealer(System.getProperty("oxd.sample.flow-cookie.keys"), COOKIE_NAME);
+            logger.info("Stateless flow mode enabled");
+        }
+    }
+
+    public void destroy() { }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        if (!ENABLED) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        HttpServletRequest req = (HttpServletRequest) request;
+        byte[] received = restore(req);
+        StateResponse resp = new StateResponse((HttpServletResponse) response, req.getContextPath(), received);
+
+        chain.doFilter(req, resp);
+        if (req.isAsyncStarted()) {
+            //The cookie is issued in the subsequent dispatch
+            return;
+        }
+
+        CompletableFuture<byte[]> exported = flowManager.exportWhenReady();
+        if (exported.isDone() || !req.isAsyncSupported()) {
+            resp.finish(await(exported));
+            return;
+        }
+
+        //State as of now, issued if the token exchange takes too long
+        byte[] current = flowManager.exportState();
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(TIMEOUT_MILLIS);
+
+        AtomicBoolean finished = new AtomicBoolean();
+        Consumer<byte[]> finish = state -> {
+            if (finished.compareAndSet(false, true)) {
+                try {
+                    resp.finish(state);
+                } catch (IOException e) {
+                    logger.warn("Response could not be completed: {}", e.getMessage());
+                } finally {
+                    asyncContext.complete();
+                }
+            }
+        };
+        asyncContext.addListener(new AsyncListener() {
+            public void onComplete(AsyncEvent event) { }
+
+            public void onTimeout(AsyncEvent event) {
+                logger.warn("Token exchange took too long, flow cookie issued without tokens");
+                finish.accept(current);
+            }
+
+            public void onError(AsyncEvent event) { }
+
+            public void onStartAsync(AsyncEvent event) { }
+        });
+        exported.whenComplete((state, e) -> finish.accept(state == null ? current : state));
+
+    }
+
+    private byte[] await(CompletableFuture<byte[]> exported) {
+
+        try {
+            return exported.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Token exchange did not complete: {}", e.toString());
+        }
+        return flowManager.exportState();
+
+    }
+
+    private byte[] restore(HttpServletRequest req) {
+
+        Cookie[] cookies = req.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName())) {
+
+                    byte[] value = sealer.open(cookie.getValue());
+                    if (value == null || value.length < Long.BYTES) {
+                        logger.debug("Ignoring invalid flow cookie");
+                        return null;
+                    }
+                    long issuedAt = ByteBuffer.wrap(value).getLong();
+                    if (System.currentTimeMillis() - issuedAt > MAX_AGE_MILLIS) {
+                        logger.debug("Ignoring expired flow cookie");
+                        return null;
+                    }
+                    byte[] state = Arrays.copyOfRange(value, Long.BYTES, value.length);
+                    if (flowManager.importState(state, issuedAt)) {
+                        logger.debug("Flow state restored from cookie");
+                    }
+                    return state;
+                }
+            }
+        }
+        return null;
+
+    }
+
+    /**
+     * Defers redirects, errors, and explicit flushes until the flow cookie is set, which happens once the filter chain
+     * returned and the state is exportable (pages are small enough to fit in the response buffer).
+     */
+    private class StateResponse extends HttpServletResponseWrapper {
+
+        private final String path;
+        private final byte[] received;
+
+        private String redirectLocation;
+        private int errorStatus;
+        private String errorMessage;
+        private boolean flush;
+
+        StateResponse(HttpServletResponse response, String contextPath, byte[] received) {
+            super(response);
+            this.path = contextPath + "/";
+            this.received = received;
+        }
+
+        /**
+         * Sets the cookie and sends what was deferred
+         * @param state Flow state. Codes are single-use: a cookie issued before tokens are obtained would leave other
+         *              nodes stuck
+         */
+        void finish(byte[] state) throws IOException {
+
+            issueCookie(state);
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            if (redirectLocation != null) {
+                response.sendRedirect(redirectLocation);
+            } else if (errorStatus != 0) {
+                if (errorMessage == null) {
+                    response.sendError(errorStatus);
+                } else {
+                    response.sendError(errorStatus, errorMessage);
+                }
+            } else if (flush) {
+                response.flushBuffer();
+            }
+
+        }
+
+        private void issueCookie(byte[] state) {
+
+            if (Arrays.equals(state, received)) {
+                return;
+            }
+            if (getResponse().isCommitted()) {
+                logger.warn("Response already committed, flow cookie could not be updated");
+                return;
+            }
+            try {
+                long now = System.currentTimeMillis();
+                byte[] value = ByteBuffer.allocate(Long.BYTES + state.length).putLong(now).put(state).array();
+                addHeader("Set-Cookie", String.format("%s=%s; Path=%s; Secure; HttpOnly; SameSite=Lax",
+                        COOKIE_NAME, sealer.seal(value), path));
+            } catch (GeneralSecurityException e) {
+                logger.error("Flow cookie could not be sealed", e);
+            }
+
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            redirectLocation = location;
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            errorStatus = sc;
+            errorMessage = msg;
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            errorStatus = sc;
+        }
+
+        @Override
+        public void flushBuffer() {
+            flush = true;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return redirectLocation != null || errorStatus != 0 || super.isCommitted();
+        }
+
+    }
+
+}
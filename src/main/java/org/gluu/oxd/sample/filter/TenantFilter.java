@@ -0,0 +1,80 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.filter;
+
+import org.gluu.oxd.sample.bean.FlowManager;
+import org.gluu.oxd.sample.bean.OxdService;
+import org.gluu.oxd.sample.bean.Tenant;
+import org.gluu.oxd.sample.bean.TenantRegistry;
+
+import javax.inject.Inject;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet filter that binds the sample flow to the tenant a request is meant for (see {@link TenantRegistry}):
+ * <ul>
+ * <li>Requests to <code>/tenant/&lt;id&gt;/&lt;path&gt;</code> select tenant <code>id</code> and are redirected to
+ * <code>/&lt;path&gt;</code>, or to the first page of the flow when no path is given</li>
+ * <li>Requests whose host name is claimed by a tenant select that tenant</li>
+ * </ul>
+ * <p>Otherwise the flow keeps the tenant it was bound to. It must follow the stateless flow filter, so the binding is
+ * part of the state, and precede the async filter, so oxd calls are issued on behalf of the right tenant.</p>
+ * @author jgomer
+ */
+public class TenantFilter implements Filter {
+
+    private static final String PATH_PREFIX = "/tenant/";
+
+    @Inject
+    private FlowManager flowManager;
+
+    @Inject
+    private OxdService oxdService;
+
+    public void init(FilterConfig filterConfig) { }
+
+    public void destroy() { }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+
+        HttpServletRequest req = (HttpServletRequest) request;
+        TenantRegistry tenants = oxdService.getTenants();
+        String path = req.getServletPath();
+
+        if (path.startsWith(PATH_PREFIX)) {
+            if (req.getPathInfo() != null) {
+                path += req.getPathInfo();
+            }
+            int end = path.indexOf('/', PATH_PREFIX.length());
+            Tenant tenant = tenants.get(path.substring(PATH_PREFIX.length(), end < 0 ? path.length() : end));
+
+            if (tenant == null) {
+                ((HttpServletResponse) response).sendError(HttpServletResponse.SC_NOT_FOUND);
+            } else {
+                flowManager.useTenant(tenant);
+                String target = end < 0 || end == path.length() - 1 ? "/oidc/" + flowManager.getStage().getUrl() : path.substring(end);
+                ((HttpServletResponse) response).sendRedirect(req.getContextPath() + target);
+            }
+            return;
+        }
+
+        Tenant tenant = tenants.forHost(req.getServerName());
+        if (tenant != null) {
+            flowManager.useTenant(tenant);
+        }
+        chain.doFilter(request, response);
+
+    }
+
+}
@@ -22,11 +22,13 @@ public class ContextListener implements ServletContextListener {
     @Inject
     private OxdService oxdService;
 
-    public void contextDestroyed(ServletContextEvent sce){ }
+    public void contextDestroyed(ServletContextEvent sce){
+        //OxdService releases pooled connections to oxd-server itself when the CDI container is shut down
+    }
 
     public void contextInitialized(ServletContextEvent sce){
-        //Execute a "Site registration" or "Setup client" operation with data available
-        oxdService.register();
+        //Reuse the stored registration or execute a "Site registration" operation in the background with data available
+        oxdService.start();
     }
 
 }
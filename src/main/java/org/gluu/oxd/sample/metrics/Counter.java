@@ -0,0 +1,40 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Increments are lock-free and cheap under contention.
+ *
+ * @author jgomer
+ */
+public final class Counter implements Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    public String getType() {
+        return "counter";
+    }
+
+    public void write(Writer out, String name, String labels) throws IOException {
+        out.write(name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + value.sum() + "\n");
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations with logarithmic buckets (four per power of two, from 1 microsecond to roughly
+ * two minutes), so the relative error of percentiles is bounded regardless of magnitude. Recording a value is a couple
+ * of atomic increments.
+ * <p>Buckets are exported in Prometheus format at every power of two microseconds from about 1 millisecond on.</p>
+ * <p>Percentiles of the values recorded over a period of time are obtained by subtracting {@link Snapshot}s taken at
+ * its start and at its end.</p>
+ *
+ * @author jgomer
+ */
+public final class Histogram implements Metric {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int OCTAVES = 27;
+    private static final int BUCKETS = OCTAVES * SUB_BUCKETS + 1;
+
+    //Index of the bucket whose upper bound is 1 millisecond (2^10 microseconds)
+    private static final int FIRST_EXPORTED = 10 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        sumNanos.add(Math.max(nanos, 0));
+    }
+
+    /**
+     * @return Number of values recorded so far
+     */
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    /**
+     * Computes an approximate percentile of the values recorded so far.
+     *
+     * @param percentile A number between 0 and 100
+     * @return Duration in seconds, or NaN if nothing was recorded
+     */
+    public double getPercentile(double percentile) {
+        return snapshot().getPercentile(percentile);
+    }
+
+    /**
+     * @return The counts of the values recorded so far
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(counts());
+    }
+
+    public void write(Writer out, String name, String labels) throws IOException {
+
+        long[] snapshot = counts();
+        String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long cumulative = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if (i >= FIRST_EXPORTED && (i - FIRST_EXPORTED) % SUB_BUCKETS == 0) {
+                out.write(name + "_bucket" + prefix + "le=\"" + upperBound(i) + "\"} " + cumulative + "\n");
+            }
+        }
+        cumulative += snapshot[BUCKETS];
+        out.write(name + "_bucket" + prefix + "le=\"+Inf\"} " + cumulative + "\n");
+        out.write(name + "_sum" + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + sumNanos.sum() / 1e9 + "\n");
+        out.write(name + "_count" + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + cumulative + "\n");
+
+    }
+
+    public String getType() {
+        return "histogram";
+    }
+
+    private long[] counts() {
+
+        long[] snapshot = new long[BUCKETS + 1];
+        for (int i = 0; i <= BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+
+    }
+
+    /**
+     * Bucket i holds values in (2^((i-1)/4), 2^(i/4)] microseconds. The last one holds values beyond the range
+     */
+    private static int bucket(long nanos) {
+
+        long micros = nanos / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        //Integer part of log2 plus the sub-bucket of the remaining fraction, taken from its own base-2 logarithm
+        int log2 = 63 - Long.numberOfLeadingZeros(micros);
+        if (log2 >= OCTAVES) {
+            return BUCKETS;
+        }
+        double fraction = (double) micros / (1L << log2);
+        int sub = (int) Math.ceil(SUB_BUCKETS * Math.log(fraction) / Math.log(2));
+        return Math.min(log2 * SUB_BUCKETS + sub, BUCKETS);
+
+    }
+
+    private static double upperBound(int bucket) {
+        return Math.pow(2, (double) bucket / SUB_BUCKETS) / 1e6;
+    }
+
+    /**
+     * The counts of a histogram at some point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+        }
+
+        /**
+         * @return Number of values counted
+         */
+        public long getCount() {
+
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            return count;
+
+        }
+
+        /**
+         * Computes an approximate percentile of the values counted.
+         *
+         * @param percentile A number between 0 and 100
+         * @return Duration in seconds, or NaN if no values were counted
+         */
+        public double getPercentile(double percentile) {
+
+            long total = getCount();
+            if (total == 0) {
+                return Double.NaN;
+            }
+
+            long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BUCKETS ? upperBound(i) : Double.POSITIVE_INFINITY;
+                }
+            }
+            return Double.POSITIVE_INFINITY;
+
+        }
+
+        /**
+         * @param earlier A snapshot of the same histogram taken before this one
+         * @return The counts of the values recorded between both snapshots
+         */
+        public Snapshot since(Snapshot earlier) {
+
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(delta);
+
+        }
+
+    }
+
+}
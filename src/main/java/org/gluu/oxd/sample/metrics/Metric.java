@@ -0,0 +1,32 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A single time series (or group of series, in case of histograms) that can be rendered in Prometheus text format.
+ *
+ * @author jgomer
+ */
+interface Metric {
+
+    /**
+     * @return Prometheus type of the metric: counter, gauge, or histogram
+     */
+    String getType();
+
+    /**
+     * Writes the samples of this metric
+     *
+     * @param out    Destination
+     * @param name   Name of the metric family
+     * @param labels Labels already rendered (e.g. <code>a="x",b="y"</code>), possibly empty
+     */
+    void write(Writer out, String name, String labels) throws IOException;
+
+}
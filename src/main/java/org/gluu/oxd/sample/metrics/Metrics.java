@@ -0,0 +1,144 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * The registry of all metrics of the application. Metrics are identified by a name plus a set of label name/value
+ * pairs; asking twice for the same metric returns the same instance, so callers may either keep a reference (cheaper)
+ * or look it up on every use.
+ * <p>Besides counters and histograms updated by the application, values owned by other components (e.g. cache sizes)
+ * can be registered as callbacks which are only invoked when metrics are rendered.</p>
+ *
+ * @author jgomer
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns a counter.
+     *
+     * @param name   Metric name (by convention ending in <code>_total</code>)
+     * @param help   Description of the metric
+     * @param labels Label names and values, alternated
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help).metrics.computeIfAbsent(render(labels), k -> new Counter());
+    }
+
+    /**
+     * Returns a histogram of durations (exported in seconds).
+     *
+     * @param name   Metric name (by convention ending in <code>_seconds</code>)
+     * @param help   Description of the metric
+     * @param labels Label names and values, alternated
+     */
+    public static Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help).metrics.computeIfAbsent(render(labels), k -> new Histogram());
+    }
+
+    /**
+     * Registers (or replaces) a counter whose value is maintained elsewhere.
+     */
+    public static void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help).metrics.put(render(labels), new Callback("counter", value::getAsLong));
+    }
+
+    /**
+     * Registers (or replaces) a gauge whose value is obtained on demand.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help).metrics.put(render(labels), new Callback("gauge", value));
+    }
+
+    /**
+     * Writes all metrics in Prometheus text exposition format (version 0.0.4), sorted by name.
+     */
+    public static void write(Writer out) throws IOException {
+
+        for (Map.Entry<String, Family> entry : new TreeMap<>(FAMILIES).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            Map<String, Metric> metrics = new TreeMap<>(family.metrics);
+            if (metrics.isEmpty()) {
+                continue;
+            }
+
+            out.write("# HELP " + name + " " + family.help + "\n");
+            out.write("# TYPE " + name + " " + metrics.values().iterator().next().getType() + "\n");
+            for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+                metric.getValue().write(out, name, metric.getKey());
+            }
+        }
+
+    }
+
+    private static Family family(String name, String help) {
+        return FAMILIES.computeIfAbsent(name, k -> new Family(help));
+    }
+
+    private static String render(String... labels) {
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return sb.toString();
+
+    }
+
+    private static final class Family {
+
+        private final String help;
+        private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+        private Family(String help) {
+            this.help = help;
+        }
+
+    }
+
+    private static final class Callback implements Metric {
+
+        private final String type;
+        private final DoubleSupplier value;
+
+        private Callback(String type, DoubleSupplier value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void write(Writer out, String name, String labels) throws IOException {
+
+            double v = value.getAsDouble();
+            String rendered = v == Math.rint(v) && !Double.isInfinite(v) ? Long.toString((long) v) : Double.toString(v);
+            out.write(name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + rendered + "\n");
+
+        }
+
+    }
+
+}
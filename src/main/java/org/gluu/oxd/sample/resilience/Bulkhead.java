@@ -0,0 +1,87 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.resilience;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Limits the number of tasks of a kind running at the same time. Tasks submitted when the limit is reached wait in a
+ * bounded queue, and are rejected once the queue is full. No thread is blocked while waiting.
+ * <p>A task tells whether it took its slot: one that gives up (e.g. because it timed out while queued) passes the slot
+ * on to the next queued task right away.</p>
+ *
+ * @author jgomer
+ */
+final class Bulkhead {
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final Queue<BooleanSupplier> queue = new ArrayDeque<>();
+
+    private int active;
+
+    Bulkhead(int maxConcurrent, int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Runs the task now (in the calling thread) if a slot is free, or queues it otherwise. A task returning true took
+     * the slot, and must eventually call {@link #release()}.
+     *
+     * @return False if the task was rejected because the queue is full
+     */
+    boolean submit(BooleanSupplier task) {
+
+        synchronized (this) {
+            if (active >= maxConcurrent) {
+                if (queue.size() >= maxQueued) {
+                    return false;
+                }
+                queue.add(task);
+                return true;
+            }
+            active++;
+        }
+        if (!task.getAsBoolean()) {
+            release();
+        }
+        return true;
+
+    }
+
+    /**
+     * Frees the slot of a finished task. Queued tasks are run in the calling thread until one takes the slot.
+     */
+    void release() {
+
+        while (true) {
+            BooleanSupplier next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            if (next.getAsBoolean()) {
+                return;
+            }
+        }
+
+    }
+
+    synchronized int getActive() {
+        return active;
+    }
+
+    synchronized int getQueued() {
+        return queue.size();
+    }
+
+}
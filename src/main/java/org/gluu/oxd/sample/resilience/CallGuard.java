@@ -0,0 +1,294 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.resilience;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.gluu.oxd.sample.metrics.Histogram;
+import org.gluu.oxd.sample.metrics.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Protects one kind of remote operation with a {@link Bulkhead}, a {@link CircuitBreaker}, and a timeout that adapts to
+ * the latencies observed.
+ * <p>Concurrency is limited by <code>oxd.sample.guard.&lt;name&gt;.concurrency</code>, and up to
+ * <code>oxd.sample.guard.&lt;name&gt;.queue</code> calls can wait for a slot. The timeout of a call is a multiple
+ * (<code>oxd.sample.timeout.multiplier</code>) of the recent <code>oxd.sample.timeout.percentile</code> latency, bounded
+ * by <code>oxd.sample.timeout.min-ms</code> and <code>oxd.sample.timeout.max-ms</code>. Latencies of successful calls
+ * are recorded in histogram <code>oxd_guard_latency_seconds</code>, and those of the last one or two minutes are
+ * considered. The timeout covers the time
+ * spent waiting in the queue. When a call times out its future fails right away, however it keeps its slot in the
+ * bulkhead until it actually finishes.</p>
+ * <p>Calls refused by the breaker fail with {@link CircuitOpenException}, and calls refused by the bulkhead fail with
+ * {@link RejectedExecutionException}.</p>
+ * <p>The logging {@link ThreadContext} of the submitting thread is in place while the operation runs and while its
+ * future is completed, so the log lines of the call and of its dependent stages can be told apart from the others.</p>
+ *
+ * @author jgomer
+ */
+public final class CallGuard {
+
+    private static final double PERCENTILE = Double.parseDouble(System.getProperty("oxd.sample.timeout.percentile", "99"));
+    private static final double MULTIPLIER = Double.parseDouble(System.getProperty("oxd.sample.timeout.multiplier", "3"));
+    private static final long MIN_TIMEOUT = Long.getLong("oxd.sample.timeout.min-ms", 1000L);
+    private static final long MAX_TIMEOUT = Long.getLong("oxd.sample.timeout.max-ms", Long.getLong("oxd.client.read-timeout", 30000L));
+
+    //Below this number of samples, the max timeout is used
+    private static final int MIN_SAMPLES = 20;
+
+    //Latencies are considered since the start of the previous window
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String name;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+
+    private final Bulkhead bulkhead;
+    private final CircuitBreaker breaker;
+    private final Histogram latencies;
+    //Snapshots of the latencies taken at the start of the current window and of the previous one
+    private final AtomicReference<Mark[]> marks;
+
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param name               Name of the operation, used in logs and property names
+     * @param defaultConcurrency Max concurrent calls if not overriden by the corresponding property
+     * @param executor           Runs the calls
+     * @param scheduler          Runs timers. It should run nothing else, or timeouts may fire late
+     */
+    public CallGuard(String name, int defaultConcurrency, Executor executor, ScheduledExecutorService scheduler) {
+
+        this.name = name;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        bulkhead = new Bulkhead(Integer.getInteger("oxd.sample.guard." + name + ".concurrency", defaultConcurrency),
+                Integer.getInteger("oxd.sample.guard." + name + ".queue", 200));
+        breaker = new CircuitBreaker(name);
+
+        latencies = Metrics.histogram("oxd_guard_latency_seconds",
+                "Duration of successful calls, including those that completed after timing out", "operation", name);
+        Mark start = new Mark(System.nanoTime(), latencies.snapshot());
+        marks = new AtomicReference<>(new Mark[] { start, start });
+
+    }
+
+    /**
+     * Runs an operation asynchronously, subject to the protections described above.
+     *
+     * @return A future completed with the result of the operation, or exceptionally if it failed, timed out, or was
+     * refused
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> operation) {
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        if (!breaker.tryAcquire()) {
+            rejections.increment();
+            future.completeExceptionally(new CircuitOpenException("Circuit breaker of " + name + " is open"));
+            return future;
+        }
+
+        Map<String, String> context = ThreadContext.isEmpty() ? null : ThreadContext.getImmutableContext();
+        long timeout = getTimeoutMillis();
+        ScheduledFuture<?> timer = scheduler.schedule(() -> runWithContext(context, () -> {
+            if (future.completeExceptionally(new TimeoutException(name + " did not complete in " + timeout + "ms"))) {
+                timeouts.increment();
+            }
+        }), timeout, TimeUnit.MILLISECONDS);
+
+        if (!bulkhead.submit(() -> start(operation, future, timer, context))) {
+            timer.cancel(false);
+            breaker.onIgnored();
+            rejections.increment();
+            future.completeExceptionally(new RejectedExecutionException("Too many " + name + " calls in progress"));
+        }
+        return future;
+
+    }
+
+    /**
+     * Hands a call over to the executor once it has a slot in the bulkhead
+     * @return False if the call was not started, in which case its slot is passed on to the next one
+     */
+    private <T> boolean start(Callable<T> operation, CompletableFuture<T> future, ScheduledFuture<?> timer, Map<String, String> context) {
+
+        if (future.isDone()) {
+            //Timed out while queued
+            breaker.onResult(false, 0);
+            return false;
+        }
+        try {
+            //Queued calls are started by whatever thread releases a slot, so the context captured on submission is used
+            executor.execute(() -> runWithContext(context, () -> run(operation, future, timer)));
+            return true;
+        } catch (RejectedExecutionException e) {
+            timer.cancel(false);
+            breaker.onIgnored();
+            rejections.increment();
+            future.completeExceptionally(e);
+            return false;
+        }
+
+    }
+
+    private <T> void run(Callable<T> operation, CompletableFuture<T> future, ScheduledFuture<?> timer) {
+
+        long start = System.nanoTime();
+        T result = null;
+        Throwable error = null;
+        try {
+            result = operation.call();
+        } catch (Throwable e) {
+            error = e;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        timer.cancel(false);
+        bulkhead.release();
+
+        boolean completed = error == null ? future.complete(result) : future.completeExceptionally(error);
+        if (error == null) {
+            //Late successes are also taken into account so the timeout can grow
+            latencies.record(elapsed);
+            if (completed) {
+                successes.increment();
+            }
+        } else {
+            failures.increment();
+        }
+        //A call that finished after the timer fired counts as failed even if it eventually succeeded
+        breaker.onResult(error == null && completed, elapsed);
+
+    }
+
+    /**
+     * Runs a task with the given logging context in place. The context of the current thread is cleared afterwards
+     * @param context Context entries, or null if there are none
+     */
+    private static void runWithContext(Map<String, String> context, Runnable task) {
+
+        if (context == null) {
+            task.run();
+            return;
+        }
+        ThreadContext.putAll(context);
+        try {
+            task.run();
+        } finally {
+            ThreadContext.clearMap();
+        }
+
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker.State getState() {
+        return breaker.getState();
+    }
+
+    public long getStateTransitions() {
+        return breaker.getTransitions();
+    }
+
+    /**
+     * @return Timeout in milliseconds that would apply to a call made now
+     */
+    public long getTimeoutMillis() {
+
+        Histogram.Snapshot recent = recentLatencies();
+        if (recent.getCount() < MIN_SAMPLES) {
+            return MAX_TIMEOUT;
+        }
+        double timeout = Math.ceil(recent.getPercentile(PERCENTILE) * 1000) * MULTIPLIER;
+        return Math.max(MIN_TIMEOUT, (long) Math.min(MAX_TIMEOUT, timeout));
+
+    }
+
+    /**
+     * @return Recent latency in milliseconds of successful calls at the given percentile, or -1 if unknown
+     */
+    public long getLatencyMillis(double percentile) {
+
+        double seconds = recentLatencies().getPercentile(percentile);
+        return Double.isNaN(seconds) ? -1 : (long) Math.min(Math.ceil(seconds * 1000), Long.MAX_VALUE);
+
+    }
+
+    /**
+     * Returns the latencies recorded since the start of the previous window, rotating windows first if the current one
+     * is over
+     */
+    private Histogram.Snapshot recentLatencies() {
+
+        long now = System.nanoTime();
+        Mark[] pair = marks.get();
+        while (now - pair[0].time >= WINDOW_NANOS) {
+            Mark current = new Mark(now, latencies.snapshot());
+            //When more than two windows elapsed, the previous one is also stale
+            Mark[] next = { current, now - pair[0].time >= 2 * WINDOW_NANOS ? current : pair[0] };
+            if (marks.compareAndSet(pair, next)) {
+                pair = next;
+                break;
+            }
+            pair = marks.get();
+        }
+        return latencies.snapshot().since(pair[1].snapshot);
+
+    }
+
+    public int getActive() {
+        return bulkhead.getActive();
+    }
+
+    public int getQueued() {
+        return bulkhead.getQueued();
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    private static final class Mark {
+
+        private final long time;
+        private final Histogram.Snapshot snapshot;
+
+        private Mark(long time, Histogram.Snapshot snapshot) {
+            this.time = time;
+            this.snapshot = snapshot;
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.resilience;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A circuit breaker driven by the outcome of the last calls.
+ * <p>While <code>CLOSED</code>, the outcomes of the last <code>oxd.sample.breaker.window</code> calls are tracked. Once
+ * at least <code>oxd.sample.breaker.min-calls</code> have been seen, the breaker opens if the percentage of failed calls
+ * reaches <code>oxd.sample.breaker.failure-rate</code>, or if the percentage of calls slower than
+ * <code>oxd.sample.breaker.slow-call-ms</code> reaches <code>oxd.sample.breaker.slow-rate</code>. While
+ * <code>OPEN</code>, calls are refused for <code>oxd.sample.breaker.open-seconds</code>. Then it becomes
+ * <code>HALF_OPEN</code>: a few trial calls are let through, and depending on their outcome the breaker closes or opens
+ * again.</p>
+ *
+ * @author jgomer
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The states a breaker can be in
+     */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int WINDOW = Integer.getInteger("oxd.sample.breaker.window", 20);
+    private static final int MIN_CALLS = Integer.getInteger("oxd.sample.breaker.min-calls", 10);
+    private static final int FAILURE_RATE = Integer.getInteger("oxd.sample.breaker.failure-rate", 50);
+    private static final int SLOW_RATE = Integer.getInteger("oxd.sample.breaker.slow-rate", 80);
+    private static final long SLOW_CALL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("oxd.sample.breaker.slow-call-ms", 5000L));
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("oxd.sample.breaker.open-seconds", 30L));
+    private static final int TRIAL_CALLS = 3;
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private final String name;
+
+    private volatile State state = State.CLOSED;
+    private final LongAdder transitions = new LongAdder();
+
+    //Outcomes of the last calls (a combination of the FAILED and SLOW bits) in a ring
+    private final byte[] outcomes = new byte[WINDOW];
+    private int next;
+    private int recorded;
+    private int failed;
+    private int slow;
+
+    private long openUntil;
+    private int trialsInFlight;
+    private int trialsSucceeded;
+
+    CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Determines whether a call may be attempted. Every call allowed must be followed by either
+     * {@link #onResult(boolean, long)} or {@link #onIgnored()}.
+     */
+    synchronized boolean tryAcquire() {
+
+        switch (state) {
+            case OPEN:
+                if (System.nanoTime() - openUntil < 0) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                //fall through
+            case HALF_OPEN:
+                if (trialsInFlight + trialsSucceeded >= TRIAL_CALLS) {
+                    return false;
+                }
+                trialsInFlight++;
+                return true;
+            default:
+                return true;
+        }
+
+    }
+
+    /**
+     * Records the outcome of a call allowed by {@link #tryAcquire()}.
+     *
+     * @param success Whether the call succeeded
+     * @param nanos   Duration of the call
+     */
+    synchronized void onResult(boolean success, long nanos) {
+
+        boolean isSlow = nanos > SLOW_CALL_NANOS;
+        switch (state) {
+            case HALF_OPEN:
+                trialsInFlight--;
+                if (!success || isSlow) {
+                    open();
+                } else if (++trialsSucceeded >= TRIAL_CALLS) {
+                    transition(State.CLOSED);
+                }
+                break;
+            case CLOSED:
+                record((byte) ((success ? 0 : FAILED) | (isSlow ? SLOW : 0)));
+                if (recorded >= MIN_CALLS &&
+                        (failed * 100 >= FAILURE_RATE * recorded || slow * 100 >= SLOW_RATE * recorded)) {
+                    open();
+                }
+                break;
+            default:
+                //Calls that started before the breaker opened
+        }
+
+    }
+
+    /**
+     * Signals that a call allowed by {@link #tryAcquire()} was finally not attempted.
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            trialsInFlight--;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getTransitions() {
+        return transitions.sum();
+    }
+
+    private void record(byte outcome) {
+
+        if (recorded == WINDOW) {
+            byte evicted = outcomes[next];
+            failed -= evicted & FAILED;
+            slow -= (evicted & SLOW) >> 1;
+        } else {
+            recorded++;
+        }
+        outcomes[next] = outcome;
+        failed += outcome & FAILED;
+        slow += (outcome & SLOW) >> 1;
+        next = (next + 1) % WINDOW;
+
+    }
+
+    private void open() {
+        openUntil = System.nanoTime() + OPEN_NANOS;
+        transition(State.OPEN);
+    }
+
+    private void transition(State target) {
+
+        State previous = state;
+        state = target;
+        transitions.increment();
+
+        //Start afresh in the new state
+        next = 0;
+        recorded = 0;
+        failed = 0;
+        slow = 0;
+        trialsInFlight = 0;
+        trialsSucceeded = 0;
+
+        if (target == State.CLOSED) {
+            logger.info("Circuit breaker of {} went from {} to {}", name, previous, target);
+        } else {
+            logger.warn("Circuit breaker of {} went from {} to {}", name, previous, target);
+        }
+
+    }
+
+}
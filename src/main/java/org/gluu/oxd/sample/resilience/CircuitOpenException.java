@@ -0,0 +1,21 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.resilience;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Signals a call that was not attempted because the circuit breaker protecting it is open.
+ *
+ * @author jgomer
+ */
+public class CircuitOpenException extends RejectedExecutionException {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that refills at a steady rate up to a max number of tokens (the burst). Its whole state is a single
+ * {@link System#nanoTime()} reading, the time at which the bucket would be full again (generic cell rate algorithm),
+ * updated with compare-and-set: no thread is ever blocked or kept waiting for a lock.
+ * <p>Callers of lower priority can be told to leave some tokens in the bucket, so that once it runs low only callers of
+ * higher priority get the remaining ones.</p>
+ *
+ * @author jgomer
+ */
+public final class TokenBucket {
+
+    private final long interval;
+    private final int burst;
+
+    //Time at which the bucket is full again
+    private final AtomicLong fullAt;
+
+    /**
+     * @param rate  Number of tokens added per second
+     * @param burst Max number of tokens held
+     */
+    public TokenBucket(double rate, int burst) {
+
+        if (rate <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst of a token bucket must be positive");
+        }
+        this.interval = Math.max((long) (TimeUnit.SECONDS.toNanos(1) / rate), 1);
+        this.burst = burst;
+        fullAt = new AtomicLong(System.nanoTime());
+
+    }
+
+    /**
+     * Takes a token if, after doing so, at least <code>reserve</code> tokens are left.
+     * @return False if there were not enough tokens
+     */
+    public boolean tryAcquire(int reserve) {
+
+        long limit = (burst - reserve) * interval;
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            //Tokens missing after this acquisition, expressed as the time needed to refill them
+            long next = (current - now > 0 ? current : now) + interval;
+            if (next - now > limit) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+
+    }
+
+    /**
+     * Gives back a token taken with {@link #tryAcquire(int)} that was not used after all. Nothing is done if the bucket
+     * refilled meanwhile.
+     */
+    public void release() {
+
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            if (current - now <= 0) {
+                return;
+            }
+            long next = current - interval;
+            if (fullAt.compareAndSet(current, next - now > 0 ? next : now)) {
+                return;
+            }
+        }
+
+    }
+
+    /**
+     * @return Number of nanoseconds until a token is available for a caller leaving <code>reserve</code> tokens
+     */
+    public long getWaitNanos(int reserve) {
+        return Math.max(fullAt.get() + interval - System.nanoTime() - (burst - reserve) * interval, 0);
+    }
+
+    /**
+     * @return Whether the bucket holds as many tokens as it can, i.e. it has not been used lately
+     */
+    public boolean isFull() {
+        return fullAt.get() - System.nanoTime() <= 0;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.security;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Encrypts and authenticates (AES-GCM) small values so they can be handed to the browser in a cookie and trusted when
+ * they come back.
+ * <p>Keys are supplied in system property <code>oxd.sample.flow-cookie.keys</code> as a comma-separated list of
+ * <code>id:base64-key</code> pairs, where <code>id</code> is a number between 0 and 255 and keys are 16, 24 or 32 bytes
+ * long. The first key of the list is used to seal values, while all of them are accepted when opening. Keys can be
+ * rotated by prepending a new key and removing the oldest one once cookies sealed with it have expired.</p>
+ * <p>Sealed values have the form <code>base64url(id | iv | ciphertext | tag)</code>. Instances are thread-safe.</p>
+ *
+ * @author jgomer
+ */
+public final class CookieSealer {
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private final SecretKey[] keys = new SecretKey[256];
+    private final int activeId;
+    private final byte[] associatedData;
+
+    /**
+     * Creates a sealer whose values are bound to a given purpose (e.g. the cookie name).
+     *
+     * @param keySpec Keys in the format described above. If null or empty, a random key is generated: values sealed
+     *                will only be understood by this JVM
+     * @param purpose A label authenticated along with every value
+     */
+    public CookieSealer(String keySpec, String purpose) {
+
+        associatedData = purpose.getBytes(StandardCharsets.UTF_8);
+
+        if (keySpec == null || keySpec.trim().isEmpty()) {
+            byte[] random = new byte[16];
+            RANDOM.nextBytes(random);
+            keys[0] = new SecretKeySpec(random, "AES");
+            activeId = 0;
+            logger.warn("No keys supplied for sealing {}, using a random key. Other nodes will not be able to read them", purpose);
+            return;
+        }
+
+        int first = -1;
+        for (String pair : keySpec.split(",")) {
+            String[] parts = pair.trim().split(":", 2);
+            int id = Integer.parseInt(parts[0].trim());
+            if (id < 0 || id > 255 || parts.length < 2) {
+                throw new IllegalArgumentException("Malformed key entry for id " + parts[0]);
+            }
+            keys[id] = new SecretKeySpec(Base64.getDecoder().decode(parts[1].trim()), "AES");
+            if (first < 0) {
+                first = id;
+            }
+        }
+        activeId = first;
+
+    }
+
+    /**
+     * Encrypts and authenticates a value with the active key.
+     *
+     * @return A URL and cookie-safe string
+     */
+    public String seal(byte[] plaintext) throws GeneralSecurityException {
+
+        byte[] out = new byte[1 + IV_LENGTH + plaintext.length + TAG_BITS / 8];
+        out[0] = (byte) activeId;
+
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, out, 1, IV_LENGTH);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, keys[activeId], new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(associatedData);
+        cipher.doFinal(plaintext, 0, plaintext.length, out, 1 + IV_LENGTH);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(out);
+
+    }
+
+    /**
+     * Decrypts a value previously sealed with any of the keys known.
+     *
+     * @return The original value, or null if the value was tampered with, is malformed, or its key is unknown
+     */
+    public byte[] open(String sealed) {
+
+        try {
+            byte[] in = Base64.getUrlDecoder().decode(sealed);
+            if (in.length < 1 + IV_LENGTH + TAG_BITS / 8) {
+                return null;
+            }
+            SecretKey key = keys[in[0] & 0xff];
+            if (key == null) {
+                return null;
+            }
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, in, 1, IV_LENGTH));
+            cipher.updateAAD(associatedData);
+            return cipher.doFinal(in, 1 + IV_LENGTH, in.length - 1 - IV_LENGTH);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            logger.debug("Discarding sealed value: {}", e.toString());
+            return null;
+        }
+
+    }
+
+}
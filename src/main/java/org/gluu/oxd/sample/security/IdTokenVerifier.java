@@ -0,0 +1,230 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.security;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.gluu.oxd.sample.bean.Json;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies ID Tokens locally (without calling oxd-server): signature is checked against the OP's keys held in a
+ * {@link JwksCache}, and <code>iss</code>, <code>aud</code>, <code>exp</code> and <code>nonce</code> claims are validated.
+ * RSA (<code>RS256/384/512</code>) and ECDSA (<code>ES256/384/512</code>) signatures are supported.
+ * <p>Instances hold no mutable state and can be used concurrently. {@link Signature} objects are reused across calls
+ * made by the same thread.</p>
+ *
+ * @author jgomer
+ */
+public final class IdTokenVerifier {
+
+    private static final long CLOCK_SKEW_SECONDS = Long.getLong("oxd.sample.id-token.clock-skew", 60L);
+
+    //Signature objects of the current thread by Java algorithm name
+    private static final ThreadLocal<Map<String, Signature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+
+    private final JwksCache jwksCache;
+
+    public IdTokenVerifier(JwksCache jwksCache) {
+        this.jwksCache = jwksCache;
+    }
+
+    /**
+     * Verifies an ID Token.
+     *
+     * @param idToken          The token in JWS compact serialization
+     * @param jwksUri          Location of OP's keys
+     * @param expectedIssuer   Value <code>iss</code> claim must have
+     * @param expectedAudience Client ID that must be part of <code>aud</code> claim
+     * @param expectedNonce    Value <code>nonce</code> claim must have. If null, the claim is not checked
+     * @param fetcher          Retrieves OP's keys if they are not cached
+     * @return The claims contained in the token
+     * @throws GeneralSecurityException If the token is malformed, its signature is invalid, or a claim check failed
+     * @throws Exception If OP's keys could not be retrieved
+     */
+    public JsonNode verify(String idToken, String jwksUri, String expectedIssuer, String expectedAudience,
+                           String expectedNonce, JwksCache.Fetcher fetcher) throws Exception {
+
+        int firstDot = idToken.indexOf('.');
+        int secondDot = idToken.indexOf('.', firstDot + 1);
+        if (firstDot < 0 || secondDot < 0 || idToken.indexOf('.', secondDot + 1) >= 0) {
+            throw new GeneralSecurityException("ID Token is not a JWS in compact serialization");
+        }
+
+        //Segments are decoded straight from the ASCII bytes of the token, with no intermediate strings
+        byte[] token = idToken.getBytes(StandardCharsets.US_ASCII);
+        JsonNode header = readTree(decode(token, 0, firstDot));
+        String alg = header.path("alg").asText();
+        String kid = header.hasNonNull("kid") ? header.get("kid").asText() : null;
+
+        PublicKey key = jwksCache.get(jwksUri, kid, fetcher);
+        if (key == null) {
+            throw new GeneralSecurityException("No key found for kid " + kid);
+        }
+
+        Signature signature = signature(javaAlgorithm(alg));
+        signature.initVerify(key);
+        signature.update(token, 0, secondDot);
+
+        ByteBuffer sig = decode(token, secondDot + 1, token.length);
+        boolean valid;
+        if (alg.startsWith("ES")) {
+            valid = signature.verify(toDer(copy(sig.array(), sig.position(), sig.remaining())));
+        } else {
+            valid = signature.verify(sig.array(), sig.position(), sig.remaining());
+        }
+        if (!valid) {
+            throw new SignatureException("ID Token signature is not valid");
+        }
+
+        JsonNode claims = readTree(decode(token, firstDot + 1, secondDot));
+        checkClaims(claims, expectedIssuer, expectedAudience, expectedNonce);
+        return claims;
+
+    }
+
+    private static ByteBuffer decode(byte[] token, int from, int to) throws GeneralSecurityException {
+
+        try {
+            return Base64.getUrlDecoder().decode(ByteBuffer.wrap(token, from, to - from));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("ID Token is not properly encoded", e);
+        }
+
+    }
+
+    private static JsonNode readTree(ByteBuffer json) throws IOException, GeneralSecurityException {
+
+        JsonNode node;
+        try (JsonParser parser = Json.MAPPER.getFactory().createParser(json.array(), json.position(), json.remaining())) {
+            node = Json.MAPPER.readTree(parser);
+        }
+        if (node == null || !node.isObject()) {
+            throw new GeneralSecurityException("ID Token segment is not a JSON object");
+        }
+        return node;
+
+    }
+
+    private static Signature signature(String algorithm) throws GeneralSecurityException {
+
+        Map<String, Signature> signatures = SIGNATURES.get();
+        Signature signature = signatures.get(algorithm);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            signatures.put(algorithm, signature);
+        }
+        return signature;
+
+    }
+
+    private static void checkClaims(JsonNode claims, String issuer, String audience, String nonce) throws GeneralSecurityException {
+
+        if (!claims.path("iss").asText().equals(issuer)) {
+            throw new GeneralSecurityException("Unexpected issuer " + claims.path("iss").asText());
+        }
+
+        JsonNode aud = claims.path("aud");
+        boolean audOk = aud.isArray() ? containsText(aud, audience) : aud.asText().equals(audience);
+        if (!audOk) {
+            throw new GeneralSecurityException("ID Token was not issued for client " + audience);
+        }
+
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        if (!claims.path("exp").canConvertToLong() || claims.get("exp").asLong() + CLOCK_SKEW_SECONDS < now) {
+            throw new GeneralSecurityException("ID Token has expired");
+        }
+
+        if (nonce != null && !claims.path("nonce").asText().equals(nonce)) {
+            throw new GeneralSecurityException("Unexpected nonce");
+        }
+
+    }
+
+    private static boolean containsText(JsonNode array, String value) {
+
+        for (JsonNode item : array) {
+            if (item.asText().equals(value)) {
+                return true;
+            }
+        }
+        return false;
+
+    }
+
+    private static String javaAlgorithm(String alg) throws GeneralSecurityException {
+
+        switch (alg) {
+            case "RS256":
+                return "SHA256withRSA";
+            case "RS384":
+                return "SHA384withRSA";
+            case "RS512":
+                return "SHA512withRSA";
+            case "ES256":
+                return "SHA256withECDSA";
+            case "ES384":
+                return "SHA384withECDSA";
+            case "ES512":
+                return "SHA512withECDSA";
+            default:
+                throw new GeneralSecurityException("Unsupported signing algorithm " + alg);
+        }
+
+    }
+
+    /**
+     * Converts a JWS ECDSA signature (R and S concatenated) to the ASN.1 DER form expected by {@link Signature}
+     */
+    private static byte[] toDer(byte[] raw) throws SignatureException {
+
+        if (raw.length == 0 || raw.length % 2 != 0) {
+            throw new SignatureException("Malformed ECDSA signature");
+        }
+        int half = raw.length / 2;
+        byte[] r = new BigInteger(1, copy(raw, 0, half)).toByteArray();
+        byte[] s = new BigInteger(1, copy(raw, half, half)).toByteArray();
+
+        int seqLength = 2 + r.length + 2 + s.length;
+        int lengthBytes = seqLength > 127 ? 2 : 1;
+        byte[] der = new byte[1 + lengthBytes + seqLength];
+
+        int i = 0;
+        der[i++] = 0x30;
+        if (lengthBytes == 2) {
+            der[i++] = (byte) 0x81;
+        }
+        der[i++] = (byte) seqLength;
+        der[i++] = 0x02;
+        der[i++] = (byte) r.length;
+        System.arraycopy(r, 0, der, i, r.length);
+        i += r.length;
+        der[i++] = 0x02;
+        der[i++] = (byte) s.length;
+        System.arraycopy(s, 0, der, i, s.length);
+        return der;
+
+    }
+
+    private static byte[] copy(byte[] source, int from, int length) {
+        byte[] target = new byte[length];
+        System.arraycopy(source, from, target, 0, length);
+        return target;
+    }
+
+}
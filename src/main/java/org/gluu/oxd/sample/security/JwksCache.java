@@ -0,0 +1,239 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.sample.bean.Json;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory copy of the signing keys published by OPs (their JSON Web Key Sets), indexed by key set location and
+ * key ID, so tenants on different OPs do not evict each other.
+ * <p>Keys are fetched once and fetched again when they get older than <code>oxd.sample.jwks.ttl</code> seconds or when
+ * a token signed with an unknown <code>kid</code> shows up (i.e. the OP rotated its keys). Every unknown key ID can
+ * force one such refresh every <code>oxd.sample.jwks.min-refresh-interval</code> seconds, so a new key is picked up
+ * right away even if the keys were just fetched. To avoid hammering the OP with bogus key IDs, once
+ * {@value #MAX_UNKNOWN_KIDS} different ones have done so in that interval, further refreshes happen at most once every
+ * interval. Concurrent lookups in the same key set share a single in-flight fetch, issued with the {@link Fetcher} of
+ * the lookup that started it.</p>
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author jgomer
+ */
+public final class JwksCache {
+
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("oxd.sample.jwks.ttl", 3600L));
+    private static final long MIN_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("oxd.sample.jwks.min-refresh-interval", 30L));
+
+    //Max number of unknown key IDs per key set that can force a refresh within the min refresh interval
+    private static final int MAX_UNKNOWN_KIDS = 16;
+
+    /**
+     * Retrieves the JSON document found at a JWKS location.
+     */
+    public interface Fetcher {
+        String fetch(String jwksUri) throws Exception;
+    }
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    private final ConcurrentMap<String, KeySet> keySets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<KeySet>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Finds a public key.
+     *
+     * @param jwksUri Location of the key set
+     * @param kid     Key ID. It can be null only if the key set contains a single key
+     * @param fetcher Retrieves the key set if it has to be fetched
+     * @return The key found or null if no key matches
+     * @throws Exception If the key set had to be fetched and this operation failed
+     */
+    public PublicKey get(String jwksUri, String kid, Fetcher fetcher) throws Exception {
+
+        KeySet current = keySets.get(jwksUri);
+        if (current != null) {
+            PublicKey key = current.find(kid);
+            long age = System.nanoTime() - current.fetchedAt;
+
+            if (key != null && age < TTL_NANOS) {
+                return key;
+            }
+            if (key == null && age < MIN_REFRESH_INTERVAL_NANOS && !current.forceRefresh(kid)) {
+                //Wait for a refresh this same kid may have forced
+                CompletableFuture<KeySet> pending = inFlight.get(jwksUri);
+                return pending == null ? null : await(pending).find(kid);
+            }
+            if (key != null) {
+                try {
+                    //Expired: prefer a fresh copy, but the current one is still better than failing
+                    PublicKey fresh = load(jwksUri, fetcher).find(kid);
+                    return fresh == null ? key : fresh;
+                } catch (Exception e) {
+                    logger.warn("Keys at {} could not be refreshed: {}", jwksUri, e.getMessage());
+                    return key;
+                }
+            }
+        }
+        return load(jwksUri, fetcher).find(kid);
+
+    }
+
+    private KeySet load(String jwksUri, Fetcher fetcher) throws Exception {
+
+        CompletableFuture<KeySet> mine = new CompletableFuture<>();
+        CompletableFuture<KeySet> existing = inFlight.putIfAbsent(jwksUri, mine);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            KeySet fresh = parse(jwksUri, Json.MAPPER.readTree(fetcher.fetch(jwksUri)), keySets.get(jwksUri));
+            logger.debug("Fetched {} keys from {}", fresh.keys.size(), jwksUri);
+            keySets.put(jwksUri, fresh);
+            mine.complete(fresh);
+            return fresh;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(jwksUri, mine);
+        }
+
+    }
+
+    private static KeySet await(CompletableFuture<KeySet> future) throws Exception {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+
+    }
+
+    private KeySet parse(String jwksUri, JsonNode jwks, KeySet previous) {
+
+        Map<String, PublicKey> keys = new HashMap<>();
+        for (JsonNode jwk : jwks.path("keys")) {
+            if ("enc".equals(jwk.path("use").asText())) {
+                continue;
+            }
+            try {
+                PublicKey key = toPublicKey(jwk);
+                if (key != null) {
+                    keys.put(jwk.path("kid").asText(""), key);
+                }
+            } catch (Exception e) {
+                logger.warn("Skipping key {} of {}: {}", jwk.path("kid").asText(), jwksUri, e.getMessage());
+            }
+        }
+        KeySet keySet = new KeySet(jwksUri, keys, System.nanoTime());
+        if (previous != null) {
+            //Unknown key IDs that recently forced a refresh cannot force another one yet
+            previous.unknownKids.forEach((kid, at) -> {
+                if (keySet.fetchedAt - at < MIN_REFRESH_INTERVAL_NANOS && !keys.containsKey(kid)) {
+                    keySet.unknownKids.put(kid, at);
+                }
+            });
+        }
+        return keySet;
+
+    }
+
+    private static PublicKey toPublicKey(JsonNode jwk) throws Exception {
+
+        switch (jwk.path("kty").asText()) {
+            case "RSA":
+                return KeyFactory.getInstance("RSA").generatePublic(
+                        new RSAPublicKeySpec(unsigned(jwk, "n"), unsigned(jwk, "e")));
+            case "EC":
+                AlgorithmParameters params = AlgorithmParameters.getInstance("EC");
+                params.init(new ECGenParameterSpec(curveName(jwk.path("crv").asText())));
+                ECParameterSpec spec = params.getParameterSpec(ECParameterSpec.class);
+
+                return KeyFactory.getInstance("EC").generatePublic(
+                        new ECPublicKeySpec(new ECPoint(unsigned(jwk, "x"), unsigned(jwk, "y")), spec));
+            default:
+                return null;
+        }
+
+    }
+
+    private static String curveName(String crv) {
+
+        switch (crv) {
+            case "P-256":
+                return "secp256r1";
+            case "P-384":
+                return "secp384r1";
+            case "P-521":
+                return "secp521r1";
+            default:
+                throw new IllegalArgumentException("Unsupported curve " + crv);
+        }
+
+    }
+
+    private static BigInteger unsigned(JsonNode jwk, String member) {
+        return new BigInteger(1, Base64.getUrlDecoder().decode(jwk.path(member).asText()));
+    }
+
+    private static final class KeySet {
+
+        private final String jwksUri;
+        private final Map<String, PublicKey> keys;
+        private final long fetchedAt;
+
+        //Unknown key IDs that forced a refresh, and when
+        private final ConcurrentMap<String, Long> unknownKids = new ConcurrentHashMap<>();
+
+        private KeySet(String jwksUri, Map<String, PublicKey> keys, long fetchedAt) {
+            this.jwksUri = jwksUri;
+            this.keys = Collections.unmodifiableMap(keys);
+            this.fetchedAt = fetchedAt;
+        }
+
+        private PublicKey find(String kid) {
+            if (kid == null) {
+                return keys.size() == 1 ? keys.values().iterator().next() : null;
+            }
+            return keys.get(kid);
+        }
+
+        /**
+         * Tells whether a lookup of an unknown key ID may refresh this key set before the min refresh interval elapsed.
+         * Only the first lookup of every key ID may, and only while few key IDs did.
+         */
+        private boolean forceRefresh(String kid) {
+            return kid != null && unknownKids.size() < MAX_UNKNOWN_KIDS
+                    && unknownKids.putIfAbsent(kid, System.nanoTime()) == null;
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.servlet;
+
+import org.gluu.oxd.sample.assets.Asset;
+import org.gluu.oxd.sample.assets.StaticAssets;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A servlet that serves the content-hashed static assets (<code>/assets/*</code>). As the name of an asset changes
+ * whenever its contents do, responses are cacheable forever. The precompressed variant that best suits the
+ * <code>Accept-Encoding</code> header of the request is sent (a 406 response if the client accepts none).
+ * <p>Contents are written with non-blocking output: a {@link WriteListener} copies them in chunks whenever the
+ * connection can take more, so slow clients do not hold a request thread.</p>
+ * @author jgomer
+ */
+public class AssetServlet extends HttpServlet {
+
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private static final int CHUNK_SIZE = 32768;
+
+    @Inject
+    private StaticAssets assets;
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        String path = req.getPathInfo();
+        Asset asset = path == null ? null : assets.get(path.substring(1));
+        if (asset == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String encoding = asset.negotiate(req.getHeader("Accept-Encoding"));
+        resp.setHeader("Vary", "Accept-Encoding");
+        if (encoding == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
+            return;
+        }
+
+        String etag = asset.getETag(encoding);
+        resp.setHeader("Cache-Control", CACHE_CONTROL);
+        resp.setHeader("ETag", etag);
+
+        if (ETags.matches(req.getHeader("If-None-Match"), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (asset.getContentType() != null) {
+            resp.setContentType(asset.getContentType());
+        }
+        if (!encoding.equals(Asset.IDENTITY)) {
+            resp.setHeader("Content-Encoding", encoding);
+        }
+        ByteBuffer content = asset.getContent(encoding);
+        resp.setContentLength(content.remaining());
+
+        if (req.isAsyncSupported()) {
+            AsyncContext asyncContext = req.startAsync();
+            asyncContext.setTimeout(0);
+            resp.getOutputStream().setWriteListener(new ContentWriter(asyncContext, content));
+        } else {
+            ServletOutputStream out = resp.getOutputStream();
+            byte[] chunk = new byte[Math.min(content.remaining(), CHUNK_SIZE)];
+            while (content.hasRemaining()) {
+                int length = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+
+    }
+
+    /**
+     * Writes the contents of an asset as fast as the client takes them, then completes the request
+     */
+    private class ContentWriter implements WriteListener {
+
+        private final AsyncContext asyncContext;
+        private final ByteBuffer content;
+        private final ServletOutputStream out;
+        private final byte[] chunk;
+
+        private ContentWriter(AsyncContext asyncContext, ByteBuffer content) throws IOException {
+            this.asyncContext = asyncContext;
+            this.content = content;
+            out = asyncContext.getResponse().getOutputStream();
+            chunk = new byte[Math.min(content.remaining(), CHUNK_SIZE)];
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+
+            //A chunk can be reused once isReady tells the previous write completed
+            while (out.isReady()) {
+                if (!content.hasRemaining()) {
+                    asyncContext.complete();
+                    return;
+                }
+                int length = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.debug("Asset could not be sent: {}", t.toString());
+            asyncContext.complete();
+        }
+
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.servlet;
+
+/**
+ * Conditional request support shared by the servlets that send entity tags.
+ *
+ * @author jgomer
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * Tells whether an <code>If-None-Match</code> request header matches an entity tag (weak comparison).
+     *
+     * @param ifNoneMatch Value of the header (can be null)
+     * @param etag        Entity tag of the current representation, quoted
+     * @return Whether a 304 response can be sent
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.servlet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gluu.oxd.sample.bean.FlowManager;
+import org.gluu.oxd.sample.bean.Json;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * A servlet that streams the JSON payloads obtained in the sample flow (<code>/tokens</code>, <code>/id-token</code>,
+ * and <code>/userinfo</code>) directly to the response in indented form.
+ * <p>Responses carry an ETag, so browsers re-displaying the same payload get a bodyless 304 response.</p>
+ * <p>Like {@link org.gluu.oxd.sample.filter.FlowAsyncFilter} does for pages, the request thread is released while the
+ * oxd call a payload comes from is in progress, and the request is dispatched again once it completes. If the call
+ * takes too long, a 503 response is sent.</p>
+ * @author jgomer
+ */
+public class FlowPayloadServlet extends HttpServlet {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("oxd.sample.await-timeout", 30L));
+
+    private Logger logger = LogManager.getLogger(getClass());
+
+    @Inject
+    private FlowManager flowManager;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        String path = req.getPathInfo() == null ? "" : req.getPathInfo();
+        CompletableFuture<?> work = path.equals("/userinfo") ? flowManager.prepareUserInfo() : flowManager.getTokensFuture();
+
+        if (work != null && !work.isDone()) {
+            if (req.getDispatcherType() == DispatcherType.ASYNC) {
+                //Dispatched upon timeout
+                resp.setHeader("Retry-After", "1");
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            if (req.isAsyncSupported()) {
+                awaitAsync(req, work);
+                return;
+            }
+        }
+
+        byte[] payload;
+        switch (path) {
+            case "/tokens":
+                payload = flowManager.getTokensResponse();
+                break;
+            case "/id-token":
+                payload = flowManager.getIdTokenClaims();
+                break;
+            case "/userinfo":
+                payload = flowManager.getUserInfoResponse();
+                break;
+            default:
+                payload = null;
+        }
+
+        if (payload == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = etag(payload);
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Cache-Control", "private, no-cache");
+
+        if (ETags.matches(req.getHeader("If-None-Match"), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        Json.writePretty(payload, resp.getOutputStream());
+
+    }
+
+    private void awaitAsync(HttpServletRequest req, CompletableFuture<?> work) {
+
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(TIMEOUT_MILLIS);
+
+        AtomicBoolean dispatched = new AtomicBoolean();
+        Runnable dispatch = () -> {
+            if (dispatched.compareAndSet(false, true)) {
+                asyncContext.dispatch();
+            }
+        };
+        asyncContext.addListener(new AsyncListener() {
+            public void onComplete(AsyncEvent event) { }
+
+            public void onTimeout(AsyncEvent event) {
+                logger.warn("oxd call took too long, payload {} not available", req.getPathInfo());
+                dispatch.run();
+            }
+
+            public void onError(AsyncEvent event) { }
+
+            public void onStartAsync(AsyncEvent event) { }
+        });
+        work.whenComplete((result, e) -> dispatch.run());
+
+    }
+
+    private static String etag(byte[] payload) {
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(payload.length) + "\"";
+
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.servlet;
+
+import org.gluu.oxd.sample.bean.OxdService;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet that tells load balancers and orchestrators whether this node can serve the sample flow: it responds with
+ * status 200 once the app is registered at oxd-server and 503 otherwise.
+ * @author jgomer
+ */
+public class ReadinessServlet extends HttpServlet {
+
+    @Inject
+    private OxdService oxdService;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        resp.setContentType("text/plain");
+        resp.setHeader("Cache-Control", "no-store");
+
+        String status;
+        if (oxdService.isReady()) {
+            status = "ready";
+        } else {
+            status = oxdService.isRegistering() ? "registering" : "not registered";
+            resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            resp.setHeader("Retry-After", "5");
+        }
+        resp.getWriter().println(status);
+
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.servlet;
+
+import org.gluu.oxd.sample.bean.FlowTracer;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet that exposes the latest traces of sampled login flows kept in memory, one JSON document per line, newest
+ * first.
+ * @author jgomer
+ */
+public class TracesServlet extends HttpServlet {
+
+    @Inject
+    private FlowTracer flowTracer;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        resp.setContentType("application/x-ndjson");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-store");
+        flowTracer.writeRecent(resp.getOutputStream());
+
+    }
+
+}
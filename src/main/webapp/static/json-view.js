@@ -0,0 +1,12 @@
+/* Fills every <pre data-json="url"> element with the JSON document served at url, or a link to it if it cannot be loaded */
+$(function () {
+    $('pre[data-json]').each(function () {
+        var pre = $(this);
+        var url = pre.data('json');
+        $.ajax({ url: url, dataType: 'text', cache: true }).done(function (text) {
+            pre.text(text);
+        }).fail(function () {
+            pre.empty().append($('<a>').attr('href', url).text('Open the JSON document'));
+        });
+    });
+});
@@ -0,0 +1,266 @@
+/*
+ * oxd-java-sample is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2018, Gluu
+ */
+package org.gluu.oxd.sample.bean;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of the state of {@link FlowManager} through its serialized form and through
+ * {@link FlowManager#exportState()}/{@link FlowManager#importState(byte[], long)}, for every stage of the flow.
+ *
+ * @author jgomer
+ */
+public class FlowManagerStateTest {
+
+    private static final String AUTHZ_URL = "https://op.example.com/oxauth/restv1/authorize?response_type=code&nonce=n-0S6";
+    private static final String ID_TOKEN = "eyJhbGciOiJub25lIn0."
+            + Base64.getUrlEncoder().withoutPadding().encodeToString("{\"sub\":\"jdoe\"}".getBytes(StandardCharsets.UTF_8)) + ".";
+    private static final String LOGOUT_URL = "https://op.example.com/oxauth/restv1/end_session?state=1";
+    private static final long EXPIRES_AT = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+
+    //Fields written by both forms
+    private static final String[] STATE_FIELDS = { "stage", "tenantId", "flowId", "authzUrl", "code", "state",
+            "accessToken", "accessTokenExpiresAt", "tokensExpiresIn", "refreshToken", "idToken", "logoutUrl" };
+
+    //Fields written only by the serialized form
+    private static final String[] PAYLOAD_FIELDS = { "tokensResponse", "idTokenClaims", "userInfoResponse" };
+
+    private static OxdService service;
+    private static FlowTracer tracer;
+
+    @BeforeClass
+    public static void startService() throws Exception {
+
+        OxdConfig config = new OxdConfig();
+        config.setHost("localhost");
+        config.setOpHost("https://op.example.com");
+        config.publish();
+
+        tracer = new SerializableFlowTracer();
+        service = new SerializableOxdService();
+        Field field = OxdService.class.getDeclaredField("config");
+        field.setAccessible(true);
+        field.set(service, config);
+        field = OxdService.class.getDeclaredField("flowTracer");
+        field.setAccessible(true);
+        field.set(service, tracer);
+        Method init = OxdService.class.getDeclaredMethod("init");
+        init.setAccessible(true);
+        init.invoke(service);
+
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.close();
+        tracer.close();
+    }
+
+    @Test
+    public void serializedFormKeepsStateOfEveryStage() throws Exception {
+
+        for (FlowManager.Stage stage : FlowManager.Stage.values()) {
+            FlowManager flow = flowAt(stage);
+            set(flow, "syncedAt", 1000L);
+            FlowManager copy = deserialize(serialize(flow));
+
+            assertSameFields(stage, flow, copy, STATE_FIELDS);
+            assertSameFields(stage, flow, copy, PAYLOAD_FIELDS);
+            assertEquals(stage.name(), 1000L, get(copy, "syncedAt"));
+            assertEquals(stage.name(), AUTHZ_URL, ((CompletableFuture<?>) get(copy, "authzUrlFuture")).getNow(null));
+            assertNotNull(stage.name(), get(copy, "tokensFuture"));
+            assertNotNull(stage.name(), get(copy, "userInfoFuture"));
+            assertNotNull(stage.name(), get(copy, "logoutUrlFuture"));
+            assertNotNull(stage.name(), get(copy, "refreshHandle"));
+        }
+
+    }
+
+    @Test
+    public void serializedFormOfNewFlow() throws Exception {
+
+        FlowManager flow = newFlow();
+        FlowManager copy = deserialize(serialize(flow));
+
+        assertSameFields("new", flow, copy, STATE_FIELDS);
+        assertNull(get(copy, "authzUrlFuture"));
+        assertNull(get(copy, "tokensFuture"));
+
+    }
+
+    @Test
+    public void exportedStateKeepsStateOfEveryStage() throws Exception {
+
+        for (FlowManager.Stage stage : FlowManager.Stage.values()) {
+            FlowManager flow = flowAt(stage);
+            FlowManager copy = newFlow();
+
+            assertTrue(stage.name(), copy.importState(flow.exportState(), 1000));
+            assertSameFields(stage, flow, copy, STATE_FIELDS);
+            assertEquals(stage.name(), 1000L, get(copy, "syncedAt"));
+            assertEquals(stage.name(), AUTHZ_URL, ((CompletableFuture<?>) get(copy, "authzUrlFuture")).getNow(null));
+
+            //Token payloads are rebuilt from the tokens, the user info is requested again
+            assertEquals(stage.name(), "jdoe", Json.MAPPER.readTree((byte[]) get(copy, "idTokenClaims")).get("sub").asText());
+            assertEquals(stage.name(), ID_TOKEN, Json.MAPPER.readTree((byte[]) get(copy, "tokensResponse")).get("id_token").asText());
+            assertNull(stage.name(), get(copy, "userInfoResponse"));
+            assertNotNull(stage.name(), get(copy, "refreshHandle"));
+        }
+
+    }
+
+    @Test
+    public void staleOrForeignStateIsNotImported() throws Exception {
+
+        FlowManager flow = flowAt(FlowManager.Stage.USER_INFO);
+        byte[] exported = flow.exportState();
+        FlowManager copy = newFlow();
+
+        assertTrue(copy.importState(exported, 2000));
+        assertFalse(copy.importState(exported, 2000));
+        assertFalse(copy.importState(exported, 1999));
+
+        copy = newFlow();
+        exported[0]++;
+        assertFalse(copy.importState(exported, 2000));
+        assertEquals(FlowManager.Stage.PRE_AUTHZ_URL, copy.getStage());
+
+    }
+
+    private static FlowManager newFlow() throws Exception {
+
+        FlowManager flow = new FlowManager();
+        set(flow, "oxdService", service);
+        set(flow, "flowTracer", tracer);
+        method("init").invoke(flow);
+        return flow;
+
+    }
+
+    /**
+     * Returns a flow at the given stage having all fields set, as if it had gone through the whole flow
+     */
+    private static FlowManager flowAt(FlowManager.Stage stage) throws Exception {
+
+        FlowManager flow = newFlow();
+        set(flow, "stage", stage);
+        set(flow, "tenantId", "acme");
+        set(flow, "authzUrl", AUTHZ_URL);
+        set(flow, "authzUrlFuture", CompletableFuture.completedFuture(AUTHZ_URL));
+        flow.setCode("4f1c2a7e-9d8b-4b5a-8c3e-2f1d0e9c8b7a");
+        flow.setState("7b1e9c2a-5a1c-4f0e-9b8e-0d5c8f3a6e21");
+        set(flow, "tokensResponse", "{\"access_token\":\"at\"}".getBytes(StandardCharsets.UTF_8));
+        set(flow, "accessToken", "at");
+        set(flow, "accessTokenExpiresAt", EXPIRES_AT);
+        set(flow, "tokensExpiresIn", 299);
+        set(flow, "refreshToken", "rt");
+        set(flow, "idToken", ID_TOKEN);
+        set(flow, "idTokenClaims", "{\"sub\":\"jdoe\"}".getBytes(StandardCharsets.UTF_8));
+        set(flow, "userInfoResponse", "{\"name\":\"John Doe\"}".getBytes(StandardCharsets.UTF_8));
+        set(flow, "logoutUrl", LOGOUT_URL);
+        return flow;
+
+    }
+
+    private static byte[] serialize(FlowManager flow) throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(flow);
+        }
+        return bytes.toByteArray();
+
+    }
+
+    private static FlowManager deserialize(byte[] data) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (FlowManager) in.readObject();
+        }
+    }
+
+    private static void assertSameFields(Object message, FlowManager expected, FlowManager actual, String[] names)
+            throws Exception {
+
+        for (String name : names) {
+            Object value = get(expected, name);
+            if (value instanceof byte[]) {
+                assertArrayEquals(message + " " + name, (byte[]) value, (byte[]) get(actual, name));
+            } else {
+                assertEquals(message + " " + name, value, get(actual, name));
+            }
+        }
+
+    }
+
+    private static Object get(FlowManager flow, String name) throws ReflectiveOperationException {
+        return field(name).get(flow);
+    }
+
+    private static void set(FlowManager flow, String name, Object value) throws ReflectiveOperationException {
+        field(name).set(flow, value);
+    }
+
+    private static Field field(String name) throws ReflectiveOperationException {
+
+        Field field = FlowManager.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+
+    }
+
+    private static Method method(String name) throws ReflectiveOperationException {
+
+        Method method = FlowManager.class.getDeclaredMethod(name);
+        method.setAccessible(true);
+        return method;
+
+    }
+
+    /**
+     * An {@link OxdService} that, like the client proxies injected by CDI, can be serialized along with the flows
+     * referencing it: it is written as a mere reference and read back as the service of this test
+     */
+    static final class SerializableOxdService extends OxdService implements Serializable {
+
+        private Object readResolve() {
+            return service;
+        }
+
+    }
+
+    /**
+     * A {@link FlowTracer} that is serialized as a mere reference, like {@link SerializableOxdService}
+     */
+    static final class SerializableFlowTracer extends FlowTracer implements Serializable {
+
+        private Object readResolve() {
+            return tracer;
+        }
+
+    }
+
+}